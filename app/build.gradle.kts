@@ -1,3 +1,7 @@
+import xyz.regulad.supir.gradle.GenerateProtocolRegistryTask
+import xyz.regulad.supir.gradle.PackIrdbTask
+import xyz.regulad.supir.gradle.PrecomputePatternsTask
+
 plugins {
     alias(libs.plugins.android.application)
     alias(libs.plugins.kotlin.android)
@@ -47,6 +51,10 @@ android {
     buildFeatures {
         compose = true
     }
+    testOptions {
+        // host tests exercise code that logs through android.util.Log
+        unitTests.isReturnDefaultValues = true
+    }
     composeOptions {
         kotlinCompilerExtensionVersion = "1.5.1"
     }
@@ -55,9 +63,54 @@ android {
             excludes += "/META-INF/{AL2.0,LGPL2.1}"
         }
     }
+    androidResources {
+        // irdb.bin and patterns.bin are memory-mapped straight out of the APK, which only works if they are stored
+        // uncompressed
+        noCompress += "bin"
+    }
+}
+
+// the IRP encoder and CSV reader, run at build time to pack the database, validate protocols, and precompute patterns
+val makehexTool: Configuration by configurations.creating
+
+// only read at build time, since the generated protocol registry carries every definition the app uses; the
+// instrumented tests get them as assets of their own (src/androidTest/assets/protocols)
+val protocolDefinitions: Directory = rootProject.layout.projectDirectory.dir("MakeHex/protocols")
+
+androidComponents {
+    onVariants { variant ->
+        val variantName = variant.name.replaceFirstChar { it.uppercase() }
+
+        val packIrdb = tasks.register<PackIrdbTask>("pack${variantName}Irdb") {
+            classpath = makehexTool
+            codesDirectory.set(layout.projectDirectory.dir("src/main/assets/codes"))
+        }
+        variant.sources.assets?.addGeneratedSourceDirectory(packIrdb, PackIrdbTask::outputDirectory)
+
+        val precomputePatterns = tasks.register<PrecomputePatternsTask>("precompute${variantName}Patterns") {
+            classpath = makehexTool
+            codesDirectory.set(layout.projectDirectory.dir("src/main/assets/codes"))
+            protocolsDirectory.set(protocolDefinitions)
+            reportFile.set(layout.buildDirectory.file("reports/patterns/${variant.name}.txt"))
+        }
+        variant.sources.assets?.addGeneratedSourceDirectory(precomputePatterns, PrecomputePatternsTask::outputDirectory)
+
+        val generateProtocolRegistry =
+            tasks.register<GenerateProtocolRegistryTask>("generate${variantName}ProtocolRegistry") {
+                classpath = makehexTool
+                protocolsDirectory.set(protocolDefinitions)
+            }
+        variant.sources.kotlin?.addGeneratedSourceDirectory(
+            generateProtocolRegistry,
+            GenerateProtocolRegistryTask::outputDirectory
+        )
+    }
 }
 
 dependencies {
+    implementation(project(":makehex"))
+    makehexTool(project(":makehex"))
+
     implementation(libs.androidx.core.ktx)
     implementation(libs.androidx.lifecycle.runtime.ktx)
     implementation(libs.androidx.activity.compose)
@@ -0,0 +1,93 @@
+package xyz.regulad.supir
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Test
+import org.junit.runner.RunWith
+import xyz.regulad.supir.irdb.CatalogTable
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.readFunction
+import xyz.regulad.supir.makehex.IrdbCsvReader
+
+/**
+ * Compares the heap used by every function in `codes/` held as [IRDBFunction] objects, the way the catalog used to be
+ * kept, against the same functions in a [CatalogTable].
+ *
+ * This only reports the numbers: heap usage is sampled around a GC, which the runtime does not promise to finish, so it
+ * is too noisy to assert on.
+ */
+@RunWith(AndroidJUnit4::class)
+class CatalogFootprintTest {
+    private val appContext = InstrumentationRegistry.getInstrumentation().targetContext
+
+    private class ModelFile(val brandName: String, val categoryName: String, val identifier: String, val path: String)
+
+    private fun modelFiles(): List<ModelFile> {
+        val topLevelEntries = appContext.assets.list("codes")?.toSet() ?: emptySet()
+
+        return appContext.assets.open("codes/index").reader().readLines().filter { it.isNotBlank() }.map {
+            val (brandName, categoryName, fileName) = it.split("/")
+            val directory = if ("$brandName.$categoryName" in topLevelEntries) {
+                "codes/$brandName.$categoryName"
+            } else {
+                "codes/$brandName/$categoryName"
+            }
+            ModelFile(brandName, categoryName, fileName.removeSuffix(".csv"), "$directory/$fileName")
+        }.sortedWith(compareBy({ it.brandName }, { it.categoryName }, { it.identifier }))
+    }
+
+    private fun readFunctions(file: ModelFile): List<IRDBFunction> =
+        IrdbCsvReader(appContext.assets.open(file.path).reader()).use { reader ->
+            generateSequence { reader.readFunction() }.toList()
+        }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) {
+            System.gc()
+            System.runFinalization()
+            Thread.sleep(100)
+        }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    @Test
+    fun reportBytesPerFunction() {
+        val files = modelFiles()
+
+        var objects: List<List<IRDBFunction>>? = null
+        val objectBaseline = usedHeap()
+        objects = files.map { readFunctions(it) }
+        val objectBytes = usedHeap() - objectBaseline
+        val functionCount = objects.sumOf { it.size }
+        objects = null // let it be collected before measuring the table
+
+        var table: CatalogTable? = null
+        val tableBaseline = usedHeap()
+        table = CatalogTable.Builder().apply {
+            var brandName: String? = null
+            var categoryName: String? = null
+            for (file in files) {
+                if (file.brandName != brandName) {
+                    beginBrand(file.brandName)
+                    brandName = file.brandName
+                    categoryName = null
+                }
+                if (file.categoryName != categoryName) {
+                    beginCategory(file.categoryName)
+                    categoryName = file.categoryName
+                }
+                beginModel(file.identifier)
+                readFunctions(file).forEach { addFunction(it) }
+            }
+        }.build()
+        val tableBytes = usedHeap() - tableBaseline
+
+        Log.d(
+            "CatalogFootprintTest",
+            "$functionCount functions: objects ${objectBytes / functionCount} bytes/function ($objectBytes total), " +
+                    "table ${tableBytes / table.functionCount} bytes/function ($tableBytes total)"
+        )
+    }
+}
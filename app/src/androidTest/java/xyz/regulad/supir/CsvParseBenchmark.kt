@@ -0,0 +1,75 @@
+package xyz.regulad.supir
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.readFunction
+import xyz.regulad.supir.makehex.IrdbCsvReader
+import java.io.StringReader
+import kotlin.time.measureTimedValue
+
+/**
+ * Compares [IrdbCsvReader] against the regex splitter it replaced, over every model in `codes/`.
+ *
+ * The files are read into memory up front so only parsing is timed.
+ */
+@RunWith(AndroidJUnit4::class)
+class CsvParseBenchmark {
+    private val appContext = InstrumentationRegistry.getInstrumentation().targetContext
+
+    private fun loadModelFiles(): List<String> {
+        val topLevelEntries = appContext.assets.list("codes")?.toSet() ?: emptySet()
+
+        return appContext.assets.open("codes/index").reader().readLines().map {
+            val (brandName, modelCategory, fileName) = it.split("/")
+            val directory = if ("$brandName.$modelCategory" in topLevelEntries) {
+                "codes/$brandName.$modelCategory"
+            } else {
+                "codes/$brandName/$modelCategory"
+            }
+            appContext.assets.open("$directory/$fileName").reader().use { reader -> reader.readText() }
+        }
+    }
+
+    private fun parseWithRegex(text: String): List<IRDBFunction> = text.reader()
+        .readLines()
+        .drop(1)
+        .filter { it.isNotBlank() }
+        .mapNotNull { line ->
+            val parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)".toRegex()).map { it.trim('"') }
+            if (parts.size != 5) {
+                null
+            } else {
+                val (functionName, protocol, device, subdevice, function) = parts
+                IRDBFunction(functionName, protocol, device.toInt(), subdevice.toInt(), function.toInt())
+            }
+        }
+
+    private fun parseWithReader(text: String): List<IRDBFunction> =
+        IrdbCsvReader(StringReader(text)).use { reader -> generateSequence { reader.readFunction() }.toList() }
+
+    @Test
+    fun benchmarkCsvParsing() {
+        val files = loadModelFiles()
+
+        // warm up both paths before timing them
+        files.forEach { parseWithRegex(it); parseWithReader(it) }
+
+        repeat(3) { run ->
+            val regexResult = measureTimedValue { files.sumOf { parseWithRegex(it).size } }
+            val readerResult = measureTimedValue { files.sumOf { parseWithReader(it).size } }
+
+            Log.d(
+                "CsvParseBenchmark",
+                "run $run over ${files.size} files: regex ${regexResult.duration} (${regexResult.value} functions), " +
+                        "reader ${readerResult.duration} (${readerResult.value} functions)"
+            )
+
+            assertEquals(regexResult.value, readerResult.value)
+        }
+    }
+}
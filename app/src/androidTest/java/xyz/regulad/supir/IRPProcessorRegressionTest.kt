@@ -0,0 +1,80 @@
+package xyz.regulad.supir
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import xyz.regulad.supir.makehex.IRPProcessor
+import xyz.regulad.supir.makehex.IrpBinding
+
+@RunWith(AndroidJUnit4::class)
+class IRPProcessorRegressionTest {
+    // the protocol definitions are assets of the test APK, not of the app
+    private val testContext = InstrumentationRegistry.getInstrumentation().context
+
+    private val devices = listOf(0, 1, 7, 31, 128, 255)
+    private val subdevices = listOf(-1, 0, 5, 200)
+    private val functions = listOf(0, 1, 12, 63, 127, 254, 255)
+
+    private fun protocolDefinitions(): Map<String, String> {
+        val definitions = testContext.assets.list("protocols")!!.associate { asset ->
+            asset.substringBeforeLast(".") to testContext.assets.open("protocols/$asset").bufferedReader()
+                .use { it.readText() }
+        }
+
+        // the parameterized RC6 family is only usable once M and L are defined
+        val rc6 = definitions["RC6-M-L"] ?: return definitions
+        return definitions + listOf(0 to 16, 6 to 20, 6 to 24, 6 to 32).associate { (m, l) ->
+            "RC6-$m-$l" to "Define M=$m\nDefine L=$l\n$rc6"
+        }
+    }
+
+    private fun legacyRawData(definition: String, binding: IrpBinding, isRepeat: Boolean): DoubleArray? {
+        val processor = LegacyIRPProcessor()
+        if (!processor.readIrpString(definition)) return null
+
+        processor.config.setLetterDefinition('D', binding.device.toString())
+        if (binding.subdevice != -1) {
+            processor.config.setLetterDefinition('S', binding.subdevice.toString())
+        }
+        processor.config.setLetterDefinition('F', binding.function.toString())
+
+        return processor.generateRawData(isRepeat)
+    }
+
+    @Test
+    fun testEveryProtocolMatchesLegacyParser() {
+        val definitions = protocolDefinitions()
+        assertTrue("no protocols found in assets", definitions.isNotEmpty())
+
+        var compared = 0
+
+        for ((name, definition) in definitions) {
+            val processor = IRPProcessor.compile(definition)
+            val legacyValid = LegacyIRPProcessor().readIrpString(definition)
+            assertEquals("$name validity", legacyValid, processor != null)
+            if (processor == null) continue
+
+            for (device in devices) for (subdevice in subdevices) for (function in functions) {
+                val binding = IrpBinding(device, subdevice, function)
+
+                for (isRepeat in listOf(false, true)) {
+                    val expected = runCatching { legacyRawData(definition, binding, isRepeat) }
+                    val actual = runCatching { processor.generateRawData(binding, isRepeat) }
+                    val label = "$name D=$device S=$subdevice F=$function repeat=$isRepeat"
+
+                    assertEquals("$label failure", expected.isFailure, actual.isFailure)
+                    if (expected.isSuccess) {
+                        assertArrayEquals(label, expected.getOrThrow(), actual.getOrThrow(), 0.0)
+                    }
+                    compared++
+                }
+            }
+        }
+
+        assertTrue("nothing was compared", compared > 0)
+    }
+}
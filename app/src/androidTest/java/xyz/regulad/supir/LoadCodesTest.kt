@@ -3,11 +3,14 @@ package xyz.regulad.supir
 import android.util.Log
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
-import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
 import org.junit.Test
 import org.junit.runner.RunWith
-import xyz.regulad.supir.irdb.loadAllBrands
+import xyz.regulad.supir.irdb.CsvCatalog
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.IrdbCatalog
+import xyz.regulad.supir.irdb.ModelCoordinate
 import kotlin.time.Duration
 import kotlin.time.measureTimedValue
 
@@ -15,22 +18,45 @@ import kotlin.time.measureTimedValue
 class LoadCodesTest {
     private val appContext = InstrumentationRegistry.getInstrumentation().targetContext
 
+    // every model of every brand, read through a CSV catalog that was just opened
+    private suspend fun readCsvCatalog(parallelism: Int): List<IRDBFunction> {
+        val catalog = CsvCatalog(appContext, parallelism)
+        return catalog.brandNames().flatMap { brandName ->
+            catalog.categoryNames(brandName).flatMap { categoryName ->
+                catalog.modelIdentifiers(brandName, categoryName).flatMap {
+                    catalog.functions(ModelCoordinate(brandName, categoryName, it))
+                }
+            }
+        }
+    }
+
     @Test
-    fun testLoadCodes() = runTest(
+    fun testParallelLoadCodes() = runTest(
         timeout = Duration.INFINITE
     ) {
-        val flow = loadAllBrands(appContext)
+        // warm up first so both runs see the same protocol caches
+        readCsvCatalog(parallelism = 1)
 
-        val oneLoadTime = measureTimedValue {
-            flow.toList()
-        }
+        val sequentialLoadTime = measureTimedValue { readCsvCatalog(parallelism = 1) }
+
+        Log.d(
+            "LoadCodesTest",
+            "sequentialLoadTime: ${sequentialLoadTime.duration}, size: ${sequentialLoadTime.value.size}"
+        )
 
-        Log.d("LoadCodesTest", "oneLoadTime: ${oneLoadTime.duration}, size: ${oneLoadTime.value.size}")
+        val parallelLoadTime = measureTimedValue { readCsvCatalog(Runtime.getRuntime().availableProcessors()) }
 
-        val twoLoadTime = measureTimedValue {
-            flow.toList()
+        Log.d("LoadCodesTest", "parallelLoadTime: ${parallelLoadTime.duration}, size: ${parallelLoadTime.value.size}")
+
+        assertEquals(sequentialLoadTime.value, parallelLoadTime.value)
+    }
+
+    @Test
+    fun testBrandListTime() {
+        val brandListTime = measureTimedValue {
+            IrdbCatalog.open(appContext).brandNames()
         }
 
-        Log.d("LoadCodesTest", "twoLoadTime: ${twoLoadTime.duration}, size: ${twoLoadTime.value.size}")
+        Log.d("LoadCodesTest", "brandListTime: ${brandListTime.duration}, size: ${brandListTime.value.size}")
     }
 }
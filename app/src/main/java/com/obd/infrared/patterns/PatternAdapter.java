@@ -4,6 +4,8 @@ import com.obd.infrared.transmit.TransmitInfo;
 import com.obd.infrared.transmit.TransmitterType;
 
 public class PatternAdapter {
+    private static final int HTC_PADDING = 10;
+
     private final PatternAdapterType adapterType;
 
     public PatternAdapter(PatternAdapterType adapterType) {
@@ -18,6 +20,57 @@ public class PatternAdapter {
         return createTransmitInfo(adapterType, patternConverter);
     }
 
+    /**
+     * Adapt a pattern of microsecond intervals. Transmitters that take intervals get @intervals itself, without a copy,
+     * and the others get exactly one new array or string, converted straight from @intervals.
+     * <p>
+     * The result does not change between calls, so it can be kept and sent again as is.
+     */
+    public TransmitInfo createTransmitInfo(int frequency, int[] intervals) {
+        switch (adapterType) {
+            case ToIntervals:
+                return new TransmitInfo(frequency, intervals);
+            case ToObsoleteSamsungString:
+                return new TransmitInfo(frequency, new Object[]{createObsoletePattern(frequency, intervals)});
+            default:
+                return new TransmitInfo(frequency, adaptInto(frequency, intervals, new int[adaptedLength(intervals.length)]));
+        }
+    }
+
+    /**
+     * How many values @intervalCount intervals adapt to, for sizing a buffer for {@link #adaptInto}.
+     */
+    public int adaptedLength(int intervalCount) {
+        if (adapterType == PatternAdapterType.ToCyclesHtcPattern) {
+            return intervalCount + intervalCount % 2;
+        }
+        return intervalCount;
+    }
+
+    /**
+     * Adapt @intervals into @destination, which must hold at least {@link #adaptedLength} values, and return
+     * @destination. Nothing is allocated.
+     *
+     * @throws IllegalArgumentException for transmitters that do not take an int pattern
+     */
+    public int[] adaptInto(int frequency, int[] intervals, int[] destination) {
+        switch (adapterType) {
+            case ToIntervals:
+                System.arraycopy(intervals, 0, destination, 0, intervals.length);
+                return destination;
+            case ToCycles:
+                return PatternConverter.convertIntervalsToCycles(frequency, intervals, destination);
+            case ToCyclesHtcPattern:
+                PatternConverter.convertIntervalsToCycles(frequency, intervals, destination);
+                if (intervals.length % 2 == 1) {
+                    destination[intervals.length] = HTC_PADDING;
+                }
+                return destination;
+            default:
+                throw new IllegalArgumentException("PatternAdapterType " + adapterType + " does not take an int pattern");
+        }
+    }
+
     public static TransmitInfo createTransmitInfo(PatternAdapterType converterType, PatternConverter patternConverter) {
         int[] pattern;
         switch (converterType) {
@@ -31,8 +84,8 @@ public class PatternAdapter {
                 pattern = convertToCyclesHtcPattern(patternConverter.convertDataTo(PatternType.Cycles));
                 break;
             case ToObsoleteSamsungString:
-                Object[] obsoletePattern = createObsoletePattern(patternConverter.getFrequency(), patternConverter.convertDataTo(PatternType.Cycles));
-                return new TransmitInfo(patternConverter.getFrequency(), obsoletePattern);
+                int[] intervals = patternConverter.convertDataTo(PatternType.Intervals);
+                return new TransmitInfo(patternConverter.getFrequency(), new Object[]{createObsoletePattern(patternConverter.getFrequency(), intervals)});
             default:
                 throw new IllegalArgumentException("PatternAdapterType " + converterType + " not supported");
         }
@@ -40,14 +93,25 @@ public class PatternAdapter {
     }
 
 
-    private static Object[] createObsoletePattern(int frequency, int[] cycleCountPattern) {
-        StringBuilder result = new StringBuilder();
+    /**
+     * The "frequency,cycles,..." string write_irsend takes, converted like
+     * {@link PatternConverter#convertIntervalsToCycles(int, int[], int[])} but without an array in between.
+     */
+    private static String createObsoletePattern(int frequency, int[] intervals) {
+        // the frequency and up to 5 digits per value, plus the commas
+        StringBuilder result = new StringBuilder(6 + intervals.length * 6);
         result.append(frequency);
-        for (Integer i : cycleCountPattern) {
+        long totalMicros = 0;
+        long emitted = 0;
+        for (int interval : intervals) {
+            totalMicros += interval;
+            long end = PatternConverter.cyclesIn(frequency, totalMicros);
+            long cycles = Math.max(1, end - emitted);
+            emitted += cycles;
             result.append(',');
-            result.append(i);
+            result.append(cycles);
         }
-        return new Object[]{result.toString()};
+        return result.toString();
     }
 
     private static int[] convertToCyclesHtcPattern(int[] cycleCountPattern) {
@@ -61,7 +125,7 @@ public class PatternAdapter {
 
         int[] newPattern = new int[count];
         System.arraycopy(cycleCountPattern, 0, newPattern, 0, cycleCountPattern.length);
-        newPattern[count - 1] = 10;
+        newPattern[count - 1] = HTC_PADDING;
         return newPattern;
     }
 
@@ -2,6 +2,8 @@ package com.obd.infrared.patterns;
 
 public class PatternConverter {
 
+    private static final long MICROS_PER_SECOND = 1000000L;
+
     private final PatternType type;
     private final int frequency;
     private final int[] data;
@@ -36,21 +38,68 @@ public class PatternConverter {
     }
 
     public static int[] convertCyclesToIntervals(int frequency, int[] cycles) {
-        int[] intervals = new int[cycles.length];
-        int k = 1000000 / frequency;
-        for (int i = 0; i < intervals.length; i++) {
-            intervals[i] = cycles[i] * k;
-        }
-        return intervals;
+        return convertCyclesToIntervals(frequency, cycles, new int[cycles.length]);
     }
 
     public static int[] convertIntervalsToCycles(int frequency, int[] intervals) {
-        int[] cycles = new int[intervals.length];
-        int k = 1000000 / frequency;
+        return convertIntervalsToCycles(frequency, intervals, new int[intervals.length]);
+    }
+
+    /**
+     * Convert @cycles into @intervals, which must be at least as long, and return @intervals.
+     * <p>
+     * Every pulse ends where the total so far ends, rounded to the nearest microsecond, so rounding never adds up over
+     * a pattern. A pulse is never shorter than 1.
+     *
+     * @throws IllegalArgumentException if @frequency is not positive
+     */
+    public static int[] convertCyclesToIntervals(int frequency, int[] cycles, int[] intervals) {
+        checkFrequency(frequency);
+        long totalCycles = 0;
+        long emitted = 0;
         for (int i = 0; i < cycles.length; i++) {
-            cycles[i] = intervals[i] / k;
+            totalCycles += cycles[i];
+            long end = (totalCycles * MICROS_PER_SECOND + frequency / 2) / frequency;
+            intervals[i] = (int) Math.max(1, end - emitted);
+            emitted += intervals[i];
+        }
+        return intervals;
+    }
+
+    /**
+     * How many whole cycles of @frequency fit in @micros, rounded to the nearest.
+     *
+     * @throws IllegalArgumentException if @frequency is not positive, which no pattern can be sent at
+     */
+    static long cyclesIn(int frequency, long micros) {
+        checkFrequency(frequency);
+        return (micros * frequency + MICROS_PER_SECOND / 2) / MICROS_PER_SECOND;
+    }
+
+    /**
+     * Convert @intervals into @cycles, which must be at least as long, and return @cycles.
+     * <p>
+     * Every pulse ends where the total so far ends, rounded to the nearest cycle, so rounding never adds up over a
+     * pattern. A pulse is never shorter than 1.
+     *
+     * @throws IllegalArgumentException if @frequency is not positive
+     */
+    public static int[] convertIntervalsToCycles(int frequency, int[] intervals, int[] cycles) {
+        long totalMicros = 0;
+        long emitted = 0;
+        for (int i = 0; i < intervals.length; i++) {
+            totalMicros += intervals[i];
+            long end = cyclesIn(frequency, totalMicros);
+            cycles[i] = (int) Math.max(1, end - emitted);
+            emitted += cycles[i];
         }
         return cycles;
     }
 
+    private static void checkFrequency(int frequency) {
+        if (frequency <= 0) {
+            throw new IllegalArgumentException("Frequency must be positive, not " + frequency);
+        }
+    }
+
 }
@@ -12,8 +12,13 @@ public abstract class Transmitter {
     private static final String TAG = "Transmitter";
 
     public static @Nullable Transmitter getTransmitterForDevice(Context context) {
-        TransmitterType transmitterType = new InfraRedDetector(context).detect();
+        return getTransmitterForType(context, new InfraRedDetector(context).detect());
+    }
 
+    /**
+     * Creates the transmitter for a type that was detected before, without detecting again.
+     */
+    public static @Nullable Transmitter getTransmitterForType(Context context, @Nullable TransmitterType transmitterType) {
         Log.d(TAG, "Get transmitter by type: " + transmitterType);
 
         if (transmitterType == null) {
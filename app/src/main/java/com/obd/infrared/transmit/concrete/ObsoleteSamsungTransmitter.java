@@ -14,6 +14,7 @@ public class ObsoleteSamsungTransmitter extends Transmitter {
     private static final String TAG = "ObsoleteTransmitter";
 
     private final Object irdaService;
+    // looked up once; every frame is then a single invoke with the pattern the adapter already built
     private Method write_irsend;
 
     @SuppressWarnings("ResourceType")
@@ -23,6 +24,8 @@ public class ObsoleteSamsungTransmitter extends Transmitter {
         irdaService = context.getSystemService("irda");
         try {
             write_irsend = irdaService.getClass().getMethod("write_irsend", String.class);
+            // skips the access check on every invoke
+            write_irsend.setAccessible(true);
         } catch (NoSuchMethodException e) {
             Log.e(TAG, "NoSuchMethodException", e);
         }
@@ -31,6 +34,10 @@ public class ObsoleteSamsungTransmitter extends Transmitter {
 
     @Override
     public void transmit(TransmitInfo transmitInfo) {
+        if (write_irsend == null) {
+            Log.w(TAG, "write_irsend is not available");
+            return;
+        }
         try {
             write_irsend.invoke(irdaService, transmitInfo.obsoleteSamsungPattern);
             Log.d(TAG, "IR signal transmitted successfully");
@@ -10,16 +10,19 @@ import androidx.compose.foundation.layout.padding
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.Favorite
 import androidx.compose.material.icons.filled.Home
+import androidx.compose.material.icons.filled.Info
 import androidx.compose.material3.*
 import androidx.compose.material3.TopAppBarDefaults.topAppBarColors
+import androidx.compose.runtime.collectAsState
 import androidx.compose.runtime.getValue
+import androidx.compose.runtime.remember
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.vector.ImageVector
 import androidx.navigation.NavGraph.Companion.findStartDestination
 import androidx.navigation.compose.currentBackStackEntryAsState
 import androidx.navigation.compose.rememberNavController
-import xyz.regulad.regulib.compose.firstState
 import xyz.regulad.regulib.compose.toRoute
+import xyz.regulad.supir.irdb.Lookup
 import xyz.regulad.supir.ui.nav.*
 import xyz.regulad.supir.ui.theme.SupIRTheme
 
@@ -32,6 +35,7 @@ data class BottomNavigationItem<T> private constructor(
         val bottomNavigationItems = listOf(
             BottomNavigationItem(Icons.Default.Home, "Home", MainRoute),
             BottomNavigationItem(Icons.Default.Favorite, "Favorites", FavoritesRoute),
+            BottomNavigationItem(Icons.Default.Info, "Diagnostics", DiagnosticsRoute),
         )
     }
 }
@@ -57,13 +61,15 @@ class MainActivity : ComponentActivity() {
                     // function routes are special because we need to fetch something from the viewmodel
                     val functionRoute = currentRoute
 
-                    val allBrandsFlow = viewmodel.allBrandsFlow
-                    val brand = allBrandsFlow.firstState { it.name == functionRoute.brandName }
-                    val category = brand?.categories?.find { it.name == functionRoute.categoryName }
-                    val model = category?.models?.find { it.identifier == functionRoute.modelIdentifier }
-                    val function = model?.functions?.find { it.identifier == functionRoute.functionIdentifier }
+                    val function by remember(functionRoute) {
+                        viewmodel.catalog.function(functionRoute.modelId, functionRoute.functionId)
+                    }.collectAsState()
 
-                    function?.let { "Press/hold to send ${it.functionName}" } ?: "Loading..."
+                    when (val lookup = function) {
+                        is Lookup.Found -> "Press/hold to send ${lookup.value.functionName}"
+                        Lookup.Loading -> "Loading..."
+                        else -> "SupIR"
+                    }
                 } else {
                     "SupIR"
                 }
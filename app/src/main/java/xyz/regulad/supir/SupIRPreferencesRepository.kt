@@ -3,6 +3,7 @@ package xyz.regulad.supir
 import android.content.Context
 import androidx.security.crypto.EncryptedSharedPreferences
 import androidx.security.crypto.MasterKey
+import xyz.regulad.supir.irdb.ModelCoordinate
 
 class SupIRPreferencesRepository(context: Context) {
     private val masterKey = MasterKey.Builder(context)
@@ -18,10 +19,43 @@ class SupIRPreferencesRepository(context: Context) {
     )
 
     companion object {
-        private const val FAVORITE_BRAND_MODELS = "favorite_brand_models"
+        private const val FAVORITE_MODELS = "favorite_models"
+        private const val USE_LOOPBACK_TRANSMITTER = "use_loopback_transmitter"
+
+        // favorites were saved as "brand//category//model" before models had ids
+        private const val LEGACY_FAVORITE_BRAND_MODELS = "favorite_brand_models"
     }
 
-    var favoriteBrandModels: Set<String>
-        get() = sharedPreferences.getStringSet(FAVORITE_BRAND_MODELS, emptySet()) ?: emptySet()
-        set(value) = sharedPreferences.edit().putStringSet(FAVORITE_BRAND_MODELS, value).apply()
+    var favoriteModels: Set<Long>
+        get() {
+            val legacyFavorites = sharedPreferences.getStringSet(LEGACY_FAVORITE_BRAND_MODELS, null)
+            if (legacyFavorites != null) {
+                val migratedFavorites = legacyFavorites
+                    .map { it.split("//") }
+                    .filter { it.size == 3 }
+                    .map { (brandName, categoryName, modelIdentifier) ->
+                        ModelCoordinate(brandName, categoryName, modelIdentifier).id
+                    }
+                    .toSet()
+                sharedPreferences.edit().remove(LEGACY_FAVORITE_BRAND_MODELS).apply()
+                return (storedFavoriteModels + migratedFavorites).also { favoriteModels = it }
+            }
+
+            return storedFavoriteModels
+        }
+        set(value) = sharedPreferences.edit().putStringSet(FAVORITE_MODELS, value.map { it.toString() }.toSet()).apply()
+
+    private val storedFavoriteModels: Set<Long>
+        get() = sharedPreferences.getStringSet(FAVORITE_MODELS, emptySet())
+            ?.mapNotNull { it.toLongOrNull() }
+            ?.toSet()
+            ?: emptySet()
+
+    /**
+     * Whether to record frames with a [xyz.regulad.supir.irdb.LoopbackTransmitter] instead of sending them. Only
+     * debuggable builds honor this, and only after a restart.
+     */
+    var useLoopbackTransmitter: Boolean
+        get() = sharedPreferences.getBoolean(USE_LOOPBACK_TRANSMITTER, false)
+        set(value) = sharedPreferences.edit().putBoolean(USE_LOOPBACK_TRANSMITTER, value).apply()
 }
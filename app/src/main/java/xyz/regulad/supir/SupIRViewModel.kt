@@ -1,26 +1,131 @@
 package xyz.regulad.supir
 
 import android.app.Application
+import android.content.pm.ApplicationInfo
+import android.util.Log
 import androidx.lifecycle.AndroidViewModel
+import androidx.lifecycle.viewModelScope
 import com.obd.infrared.transmit.Transmitter
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableStateFlow
-import xyz.regulad.supir.irdb.loadAllBrands
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import xyz.regulad.supir.cache.CacheTrimmer
+import xyz.regulad.supir.irdb.CatalogRepository
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.LoopbackTransmitter
+import xyz.regulad.supir.irdb.PatternCache
+import xyz.regulad.supir.irdb.TransmitProfiler
+import xyz.regulad.supir.irdb.TransmitterManager.closeScheduler
+import xyz.regulad.supir.irdb.TransmitterManager.scheduler
+import xyz.regulad.supir.irdb.TransmitterProfile
+
+private const val TAG = "SupIRViewModel"
 
 class SupIRViewModel(application: Application) : AndroidViewModel(application) {
-    val transmitter: Transmitter? = Transmitter.getTransmitterForDevice(application)
-    val allBrandsFlow = loadAllBrands(application)
+    /**
+     * The transmitter of this device, or null if it has none. Only meaningful once [transmitterProfile] is set.
+     */
+    @Volatile
+    var transmitter: Transmitter? = null
+        private set
+
+    private val _transmitterProfile = MutableStateFlow<TransmitterProfile?>(null)
+
+    /**
+     * What this device can transmit, or null while it is still being restored or detected.
+     */
+    val transmitterProfile: StateFlow<TransmitterProfile?> = _transmitterProfile
+
     val preferencesRepository = SupIRPreferencesRepository(application)
 
-    private var _favoriteBrandModels = MutableStateFlow(preferencesRepository.favoriteBrandModels)
-    val favoriteBrandModels = _favoriteBrandModels
+    /**
+     * Whether this is a debug build, which offers a [LoopbackTransmitter] for devices without IR hardware.
+     */
+    val isDebuggable = application.applicationInfo.flags and ApplicationInfo.FLAG_DEBUGGABLE != 0
+
+    // browsing goes through the catalog so each screen only loads what it shows
+    val catalog = CatalogRepository(application, viewModelScope)
+
+    private var _favoriteModels = MutableStateFlow(preferencesRepository.favoriteModels)
+    val favoriteModels = _favoriteModels
+
+    init {
+        application.registerComponentCallbacks(CacheTrimmer)
+
+        // detection scans packages and fires a test pattern, so it never runs on the main thread
+        viewModelScope.launch(Dispatchers.IO) {
+            val profile = TransmitterProfile.current(application)
+            val transmitter = if (isDebuggable && preferencesRepository.useLoopbackTransmitter) {
+                LoopbackTransmitter(application)
+            } else {
+                profile.createTransmitter(application)
+            }
+            this@SupIRViewModel.transmitter = transmitter?.apply { scheduler.latency = profile.transmitLatency }
+            _transmitterProfile.value = profile
+        }
+
+        // favorites are likely to be pressed soon after starting
+        viewModelScope.launch {
+            try {
+                for (modelId in favoriteModels.value) {
+                    warmUp(catalog.awaitFunctions(modelId))
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                // the screens report a catalog that failed to open; warming up is only worth a log line
+                Log.e(TAG, "Failed to warm up favorites", e)
+            }
+        }
+    }
+
+    /**
+     * Measures how long transmit calls take on this device and keeps the result in its profile, where the scheduler
+     * and bursts use it from then on.
+     *
+     * @throws Exception if the transmitter failed or was too busy
+     */
+    suspend fun profileTransmitter(onProgress: (Float) -> Unit) {
+        val profile = transmitterProfile.first { it != null }!!
+        val transmitter = transmitter ?: return
+
+        val transmitLatency = TransmitProfiler.profile(transmitter, profile.carrierCapabilities, onProgress)
+        val profiled = profile.withTransmitLatency(transmitLatency)
+        // a loopback transmitter says nothing about this device's hardware, so it is only kept until a restart
+        if (transmitter !is LoopbackTransmitter) {
+            withContext(Dispatchers.IO) {
+                TransmitterProfile.update(getApplication(), profiled)
+            }
+        }
+        transmitter.scheduler.latency = transmitLatency
+        _transmitterProfile.value = profiled
+    }
+
+    override fun onCleared() {
+        getApplication<Application>().unregisterComponentCallbacks(CacheTrimmer)
+        transmitter?.closeScheduler()
+    }
 
-    fun setBrandModelFavorite(brandModel: String, isFavorite: Boolean) {
-        val newFavoriteBrandModels = if (isFavorite) {
-            _favoriteBrandModels.value + brandModel
+    fun setModelFavorite(modelId: Long, isFavorite: Boolean) {
+        val newFavoriteModels = if (isFavorite) {
+            _favoriteModels.value + modelId
         } else {
-            _favoriteBrandModels.value - brandModel
+            _favoriteModels.value - modelId
         }
-        _favoriteBrandModels.value = newFavoriteBrandModels
-        preferencesRepository.favoriteBrandModels = newFavoriteBrandModels
+        _favoriteModels.value = newFavoriteModels
+        preferencesRepository.favoriteModels = newFavoriteModels
+    }
+
+    /**
+     * Encodes [functions] for this device's transmitter in the background, so pressing one of them only has to send it.
+     */
+    suspend fun warmUp(functions: List<IRDBFunction>) {
+        transmitterProfile.first { it != null }
+        val transmitter = transmitter ?: return
+        PatternCache.warmUp(getApplication(), functions, transmitter.transmitterType)
     }
 }
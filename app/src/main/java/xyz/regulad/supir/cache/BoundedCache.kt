@@ -0,0 +1,100 @@
+package xyz.regulad.supir.cache
+
+/**
+ * A thread-safe, size-bounded cache that evicts the least recently used entries first.
+ *
+ * Entries are spread over [stripes] independently locked segments by key hash, so threads working on different keys
+ * rarely wait on each other. Each segment is an access-ordered [LinkedHashMap] holding an equal share of [maxWeight],
+ * which makes eviction approximately, rather than strictly, least recently used across the whole cache. An entry that
+ * weighs more than one share is still cached, with nothing else in its segment, so the cache can weigh more than
+ * [maxWeight] by at most one such entry per segment.
+ *
+ * Values are computed outside of any lock, so [getOrPut] may compute a value more than once if two threads miss on the
+ * same key at the same time; the first one stored wins. Only cache values that are safe to compute twice.
+ *
+ * @param weigher the weight of an entry, which must be at least 1 and must not change while the entry is cached
+ */
+class BoundedCache<K : Any, V : Any>(
+    val name: String,
+    val maxWeight: Int,
+    stripes: Int = 8,
+    private val weigher: (K, V) -> Int = { _, _ -> 1 },
+) : TrimmableCache {
+    private inner class Segment(val maxWeight: Int) {
+        val entries = LinkedHashMap<K, V>(16, 0.75f, true)
+        var weight = 0
+
+        /**
+         * Evicts the least recently used entries until at most [targetWeight] is left, but never the newest [keep].
+         */
+        fun trimTo(targetWeight: Int, keep: Int = 0) {
+            val iterator = entries.entries.iterator()
+            while (weight > targetWeight && entries.size > keep && iterator.hasNext()) {
+                val eldest = iterator.next()
+                weight -= weigher(eldest.key, eldest.value)
+                iterator.remove()
+            }
+        }
+    }
+
+    private val segments = Array(stripes) { Segment(maxOf(1, maxWeight / stripes)) }
+
+    init {
+        CacheTrimmer.register(this)
+    }
+
+    private fun segmentFor(key: K): Segment {
+        // spread the hash so keys that only differ in high bits do not all land in one segment
+        val hash = key.hashCode().let { it xor (it ushr 16) }
+        return segments[Math.floorMod(hash, segments.size)]
+    }
+
+    operator fun get(key: K): V? {
+        val segment = segmentFor(key)
+        synchronized(segment) {
+            return segment.entries[key]
+        }
+    }
+
+    /**
+     * Caches [value] under [key] unless something was cached there in the meantime.
+     *
+     * @return whichever value ends up cached
+     */
+    fun putIfAbsent(key: K, value: V): V {
+        val segment = segmentFor(key)
+        synchronized(segment) {
+            segment.entries[key]?.let { return it }
+
+            segment.entries[key] = value
+            segment.weight += weigher(key, value)
+            // the entry that was just added stays, even if it is heavier than the whole segment
+            segment.trimTo(segment.maxWeight, keep = 1)
+        }
+        return value
+    }
+
+    inline fun getOrPut(key: K, compute: () -> V): V = get(key) ?: putIfAbsent(key, compute())
+
+    val weight: Int
+        get() = segments.sumOf { synchronized(it) { it.weight } }
+
+    override fun trimTo(fraction: Float) {
+        for (segment in segments) {
+            synchronized(segment) {
+                segment.trimTo((segment.maxWeight * fraction).toInt())
+            }
+        }
+    }
+
+    override fun clear() {
+        for (segment in segments) {
+            synchronized(segment) {
+                segment.entries.clear()
+                segment.weight = 0
+            }
+        }
+    }
+
+    override fun toString(): String = "BoundedCache($name, $weight/$maxWeight)"
+}
@@ -0,0 +1,62 @@
+package xyz.regulad.supir.cache
+
+import android.content.ComponentCallbacks2
+import android.content.res.Configuration
+import android.util.Log
+import java.util.*
+
+/**
+ * A cache that can give memory back when the system asks for it.
+ */
+interface TrimmableCache {
+    /**
+     * Evicts the least recently used entries until at most [fraction] of the capacity is used.
+     */
+    fun trimTo(fraction: Float)
+
+    fun clear()
+}
+
+/**
+ * Trims every live [TrimmableCache] when the system is low on memory, so warm data is dropped before the process is.
+ *
+ * Caches register themselves; register this with `Context.registerComponentCallbacks` to receive the callbacks.
+ */
+object CacheTrimmer : ComponentCallbacks2 {
+    private const val TAG = "CacheTrimmer"
+
+    // weakly held so short-lived caches do not stay reachable through here
+    private val caches = Collections.synchronizedMap(WeakHashMap<TrimmableCache, Unit>())
+
+    fun register(cache: TrimmableCache) {
+        caches[cache] = Unit
+    }
+
+    private fun forEachCache(action: (TrimmableCache) -> Unit) {
+        val snapshot = synchronized(caches) { caches.keys.toList() }
+        snapshot.forEach(action)
+    }
+
+    @Suppress("DEPRECATION") // the running levels are still delivered on older releases
+    override fun onTrimMemory(level: Int) {
+        when {
+            // we are next in line to be killed, or memory is critically low while running: drop everything
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> {
+                Log.d(TAG, "Clearing caches (trim level $level)")
+                forEachCache { it.clear() }
+            }
+
+            // the UI went away or memory is getting low: keep the most recently used half
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> {
+                Log.d(TAG, "Trimming caches to half (trim level $level)")
+                forEachCache { it.trimTo(0.5f) }
+            }
+        }
+    }
+
+    override fun onLowMemory() {
+        forEachCache { it.clear() }
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {}
+}
@@ -0,0 +1,67 @@
+package xyz.regulad.supir.irdb
+
+import android.content.Context
+import android.content.Context.CONSUMER_IR_SERVICE
+import android.hardware.ConsumerIrManager
+
+/**
+ * An immutable snapshot of the carrier frequencies the device can transmit, so checking a protocol is an integer range
+ * check instead of a binder call.
+ *
+ * Ranges are inclusive and stored as parallel arrays, in the order the device reported them.
+ */
+class CarrierCapabilities private constructor(
+    /**
+     * True if the device has no [ConsumerIrManager] to ask, in which case every frequency is assumed to work.
+     */
+    val isUnrestricted: Boolean,
+    private val minimumFrequencies: IntArray,
+    private val maximumFrequencies: IntArray,
+) {
+    fun supports(frequency: Int): Boolean {
+        if (frequency < 0) return false
+        if (isUnrestricted) return true
+        for (range in minimumFrequencies.indices) {
+            if (frequency in minimumFrequencies[range]..maximumFrequencies[range]) return true
+        }
+        return false
+    }
+
+    /**
+     * The supported ranges, or none if [isUnrestricted] or if nothing can be sent.
+     */
+    val ranges: List<IntRange>
+        get() = minimumFrequencies.indices.map { minimumFrequencies[it]..maximumFrequencies[it] }
+
+    override fun equals(other: Any?): Boolean = other is CarrierCapabilities &&
+            isUnrestricted == other.isUnrestricted &&
+            minimumFrequencies.contentEquals(other.minimumFrequencies) &&
+            maximumFrequencies.contentEquals(other.maximumFrequencies)
+
+    override fun hashCode(): Int =
+        (31 * isUnrestricted.hashCode() + minimumFrequencies.contentHashCode()) * 31 + maximumFrequencies.contentHashCode()
+
+    override fun toString(): String = if (isUnrestricted) "CarrierCapabilities(any)" else "CarrierCapabilities($ranges)"
+
+    companion object {
+        val UNRESTRICTED = CarrierCapabilities(true, IntArray(0), IntArray(0))
+
+        /**
+         * Supports exactly [ranges], so no ranges support nothing.
+         */
+        fun of(ranges: List<IntRange>): CarrierCapabilities = CarrierCapabilities(
+            false,
+            IntArray(ranges.size) { ranges[it].first },
+            IntArray(ranges.size) { ranges[it].last },
+        )
+
+        /**
+         * Asks [ConsumerIrManager] for its ranges. Devices without it, which transmit through a vendor API, are
+         * treated as unrestricted. A device that reports no ranges cannot send anything.
+         */
+        fun query(context: Context): CarrierCapabilities {
+            val irService = context.getSystemService(CONSUMER_IR_SERVICE) as ConsumerIrManager? ?: return UNRESTRICTED
+            return of(irService.carrierFrequencies.orEmpty().map { it.minFrequency..it.maxFrequency })
+        }
+    }
+}
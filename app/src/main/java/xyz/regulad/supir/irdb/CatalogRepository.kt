@@ -0,0 +1,141 @@
+package xyz.regulad.supir.irdb
+
+import android.content.Context
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import xyz.regulad.supir.cache.BoundedCache
+
+/**
+ * Where a model lives in the catalog.
+ */
+data class ModelCoordinate(val brandName: String, val categoryName: String, val modelIdentifier: String) {
+    /**
+     * Identifies this model in routes, favorites, and caches. See [StableId].
+     */
+    val id: Long = StableId().add(brandName).add(categoryName).add(modelIdentifier).value
+}
+
+private const val TAG = "CatalogRepository"
+
+/**
+ * The state of one [CatalogRepository] lookup.
+ */
+sealed interface Lookup<out T : Any> {
+    /**
+     * The catalog has not answered yet.
+     */
+    data object Loading : Lookup<Nothing>
+
+    /**
+     * The catalog has no such entry, like a favorite or a restored route whose model is no longer in it.
+     */
+    data object Absent : Lookup<Nothing>
+
+    data class Found<T : Any>(val value: T) : Lookup<T>
+
+    /**
+     * The catalog could not be opened or read.
+     */
+    data class Failed(val cause: Throwable) : Lookup<Nothing>
+
+    /**
+     * The value if it was found, or null in any other state.
+     */
+    val valueOrNull: T?
+        get() = (this as? Found)?.value
+}
+
+/**
+ * Keyed access to the catalog for the UI.
+ *
+ * Every lookup is a [StateFlow] that is [Lookup.Loading] until the catalog has answered on a background thread, and
+ * then the answer, which is final. Lookups are remembered by key, so a screen that is opened again, or a second
+ * observer of the same thing (like the top bar and the function screen), gets the value that is already loaded.
+ * Looking up a deep route, including after process death, goes straight to its node through hash indexes instead of
+ * walking the catalog from the top.
+ */
+class CatalogRepository internal constructor(context: Context, private val scope: CoroutineScope) {
+    private val catalog = scope.async(Dispatchers.IO, start = CoroutineStart.LAZY) { IrdbCatalog.open(context) }
+
+    private val categoryNames =
+        BoundedCache<String, StateFlow<Lookup<List<String>>>>("category lookups", maxWeight = 64)
+    private val modelIdentifiers =
+        BoundedCache<Pair<String, String>, StateFlow<Lookup<List<String>>>>("model lookups", maxWeight = 64)
+    private val models = BoundedCache<Long, StateFlow<Lookup<ModelCoordinate>>>("model id lookups", maxWeight = 256)
+    private val functionLists =
+        BoundedCache<Long, StateFlow<Lookup<List<IRDBFunction>>>>("function list lookups", maxWeight = 64)
+    private val functions =
+        BoundedCache<Pair<Long, Long>, StateFlow<Lookup<IRDBFunction>>>("function lookups", maxWeight = 64)
+
+    // function id to function, built once per model
+    private val functionIndexes = BoundedCache<Long, Map<Long, IRDBFunction>>(
+        "function indexes",
+        maxWeight = 4_096,
+        weigher = { _, index -> maxOf(1, index.size) }
+    )
+
+    private fun <T : Any> lookup(query: suspend IrdbCatalog.() -> T?): StateFlow<Lookup<T>> {
+        val state = MutableStateFlow<Lookup<T>>(Lookup.Loading)
+        scope.launch(Dispatchers.IO) {
+            state.value = try {
+                catalog.await().query()?.let { Lookup.Found(it) } ?: Lookup.Absent
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to look up something in the catalog", e)
+                Lookup.Failed(e)
+            }
+        }
+        return state.asStateFlow()
+    }
+
+    private suspend fun IrdbCatalog.functionIndex(modelId: Long): Map<Long, IRDBFunction> =
+        functionIndexes[modelId] ?: functionIndexes.putIfAbsent(
+            modelId,
+            model(modelId)?.let { functions(it) }?.associateBy { it.id } ?: emptyMap()
+        )
+
+    val brandNames: StateFlow<Lookup<List<String>>> = lookup { brandNames() }
+
+    fun categoryNames(brandName: String): StateFlow<Lookup<List<String>>> =
+        categoryNames.getOrPut(brandName) { lookup { categoryNames(brandName) } }
+
+    fun modelIdentifiers(brandName: String, categoryName: String): StateFlow<Lookup<List<String>>> =
+        modelIdentifiers.getOrPut(brandName to categoryName) { lookup { modelIdentifiers(brandName, categoryName) } }
+
+    /**
+     * The model with the given [ModelCoordinate.id], or [Lookup.Absent] if there is no such model.
+     */
+    fun model(modelId: Long): StateFlow<Lookup<ModelCoordinate>> =
+        models.getOrPut(modelId) { lookup { model(modelId) } }
+
+    /**
+     * The functions of the model with the given [ModelCoordinate.id], or [Lookup.Absent] if there is no such model.
+     */
+    fun functions(modelId: Long): StateFlow<Lookup<List<IRDBFunction>>> =
+        functionLists.getOrPut(modelId) { lookup { model(modelId)?.let { functions(it) } } }
+
+    /**
+     * The functions of a model once the catalog is open, or nothing if there is no such model.
+     *
+     * @throws Exception if the catalog could not be opened
+     */
+    suspend fun awaitFunctions(modelId: Long): List<IRDBFunction> = withContext(Dispatchers.IO) {
+        catalog.await().run { model(modelId)?.let { functions(it) } } ?: emptyList()
+    }
+
+    /**
+     * The function of a model with the given [IRDBFunction.id], or [Lookup.Absent] if there is no such function.
+     */
+    fun function(modelId: Long, functionId: Long): StateFlow<Lookup<IRDBFunction>> =
+        functions.getOrPut(modelId to functionId) { lookup { functionIndex(modelId)[functionId] } }
+}
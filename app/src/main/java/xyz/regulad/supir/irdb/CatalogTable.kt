@@ -0,0 +1,257 @@
+package xyz.regulad.supir.irdb
+
+/**
+ * Part of the catalog, stored column by column.
+ *
+ * Every function is a row of five ints: ids for its name and protocol in a string table shared by the whole table,
+ * then its device, subdevice, and function. Brands, categories, and models are rows of a name id and the index of
+ * their first child, so a model's functions (and a category's models, and a brand's categories) are a contiguous run.
+ * A function takes 20 bytes this way, plus a reference to its object once it was read, where an [IRDBFunction] object
+ * with its own strings takes several times that.
+ *
+ * [SBrand], [SCategory], and [SModel] are views into a table. An [IRDBFunction] is created the first time its row is
+ * read, sharing the table's strings, and that same object is returned from then on, so comparing or listing a model
+ * again allocates nothing per function.
+ */
+class CatalogTable private constructor(
+    private val strings: Array<String>,
+    private val brandNames: IntArray,
+    private val brandCategoryStarts: IntArray,
+    private val categoryNames: IntArray,
+    private val categoryModelStarts: IntArray,
+    private val modelNames: IntArray,
+    private val modelFunctionStarts: IntArray,
+    private val functionNames: IntArray,
+    private val functionProtocols: IntArray,
+    private val functionDevices: IntArray,
+    private val functionSubdevices: IntArray,
+    private val functionValues: IntArray,
+) {
+    val brandCount: Int
+        get() = brandNames.size
+
+    val functionCount: Int
+        get() = functionNames.size
+
+    val brands: List<SBrand> = ViewList(0, brandCount) { SBrand(this, it) }
+
+    // one slot per row, filled on first read; racing readers at worst create equal functions
+    private val functions = arrayOfNulls<IRDBFunction>(functionCount)
+
+    internal fun brandName(brand: Int): String = strings[brandNames[brand]]
+
+    internal fun categoriesOf(brand: Int): List<SCategory> =
+        ViewList(brandCategoryStarts[brand], brandCategoryStarts[brand + 1]) { SCategory(this, it) }
+
+    internal fun categoryName(category: Int): String = strings[categoryNames[category]]
+
+    internal fun modelsOf(category: Int): List<SModel> =
+        ViewList(categoryModelStarts[category], categoryModelStarts[category + 1]) { SModel(this, it) }
+
+    internal fun modelName(model: Int): String = strings[modelNames[model]]
+
+    internal fun functionsOf(model: Int): List<IRDBFunction> =
+        ViewList(modelFunctionStarts[model], modelFunctionStarts[model + 1]) { function(it) }
+
+    internal fun function(function: Int): IRDBFunction = functions[function] ?: IRDBFunction(
+        strings[functionNames[function]],
+        strings[functionProtocols[function]],
+        functionDevices[function],
+        functionSubdevices[function],
+        functionValues[function],
+    ).also { functions[function] = it }
+
+    /**
+     * The rows [start] until [end] of one column, created on access.
+     */
+    private class ViewList<T>(private val start: Int, private val end: Int, private val row: (Int) -> T) :
+        AbstractList<T>() {
+        override val size: Int
+            get() = end - start
+
+        override fun get(index: Int): T {
+            if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index $index out of bounds for size $size")
+            return row(start + index)
+        }
+    }
+
+    private class IntColumn {
+        private var values = IntArray(16)
+
+        var size = 0
+            private set
+
+        fun add(value: Int) {
+            if (size == values.size) values = values.copyOf(size * 2)
+            values[size++] = value
+        }
+
+        fun last(): Int = values[size - 1]
+
+        fun removeLast() {
+            size--
+        }
+
+        /**
+         * Copies the column out, followed by [end] if given, to turn a column of starts into a column of bounds.
+         */
+        fun toIntArray(end: Int? = null): IntArray {
+            val array = values.copyOf(if (end != null) size + 1 else size)
+            if (end != null) array[size] = end
+            return array
+        }
+    }
+
+    /**
+     * Builds a table top-down: begin a brand, then its categories, then their models, adding functions to the model
+     * most recently begun. Models without functions, categories without models, and brands without categories are
+     * dropped, so callers can begin a node before knowing if anything will end up in it.
+     */
+    class Builder {
+        private val stringIds = HashMap<String, Int>()
+        private val strings = ArrayList<String>()
+
+        private val brandNames = IntColumn()
+        private val brandCategoryStarts = IntColumn()
+        private val categoryNames = IntColumn()
+        private val categoryModelStarts = IntColumn()
+        private val modelNames = IntColumn()
+        private val modelFunctionStarts = IntColumn()
+        private val functionNames = IntColumn()
+        private val functionProtocols = IntColumn()
+        private val functionDevices = IntColumn()
+        private val functionSubdevices = IntColumn()
+        private val functionValues = IntColumn()
+
+        private var brandOpen = false
+        private var categoryOpen = false
+        private var modelOpen = false
+
+        private fun intern(string: String): Int = stringIds.getOrPut(string) {
+            strings.add(string)
+            strings.size - 1
+        }
+
+        private fun closeModel() {
+            if (modelOpen && modelFunctionStarts.last() == functionNames.size) {
+                modelNames.removeLast()
+                modelFunctionStarts.removeLast()
+            }
+            modelOpen = false
+        }
+
+        private fun closeCategory() {
+            closeModel()
+            if (categoryOpen && categoryModelStarts.last() == modelNames.size) {
+                categoryNames.removeLast()
+                categoryModelStarts.removeLast()
+            }
+            categoryOpen = false
+        }
+
+        private fun closeBrand() {
+            closeCategory()
+            if (brandOpen && brandCategoryStarts.last() == categoryNames.size) {
+                brandNames.removeLast()
+                brandCategoryStarts.removeLast()
+            }
+            brandOpen = false
+        }
+
+        fun beginBrand(name: String) = apply {
+            closeBrand()
+            brandNames.add(intern(name))
+            brandCategoryStarts.add(categoryNames.size)
+            brandOpen = true
+        }
+
+        fun beginCategory(name: String) = apply {
+            check(brandOpen) { "No brand to add category $name to" }
+            closeCategory()
+            categoryNames.add(intern(name))
+            categoryModelStarts.add(modelNames.size)
+            categoryOpen = true
+        }
+
+        fun beginModel(identifier: String) = apply {
+            check(categoryOpen) { "No category to add model $identifier to" }
+            closeModel()
+            modelNames.add(intern(identifier))
+            modelFunctionStarts.add(functionNames.size)
+            modelOpen = true
+        }
+
+        fun addFunction(function: IRDBFunction) = apply {
+            check(modelOpen) { "No model to add function ${function.functionName} to" }
+            functionNames.add(intern(function.functionName))
+            functionProtocols.add(intern(function.protocol))
+            functionDevices.add(function.device)
+            functionSubdevices.add(function.subdevice)
+            functionValues.add(function.function)
+        }
+
+        fun build(): CatalogTable {
+            closeBrand()
+
+            return CatalogTable(
+                strings.toTypedArray(),
+                brandNames.toIntArray(),
+                brandCategoryStarts.toIntArray(end = categoryNames.size),
+                categoryNames.toIntArray(),
+                categoryModelStarts.toIntArray(end = modelNames.size),
+                modelNames.toIntArray(),
+                modelFunctionStarts.toIntArray(end = functionNames.size),
+                functionNames.toIntArray(),
+                functionProtocols.toIntArray(),
+                functionDevices.toIntArray(),
+                functionSubdevices.toIntArray(),
+                functionValues.toIntArray(),
+            )
+        }
+    }
+}
+
+class SBrand internal constructor(private val table: CatalogTable, private val brand: Int) {
+    val name: String
+        get() = table.brandName(brand)
+
+    val categories: List<SCategory>
+        get() = table.categoriesOf(brand)
+
+    override fun equals(other: Any?): Boolean = other is SBrand &&
+            (other.table === table && other.brand == brand || other.name == name && other.categories == categories)
+
+    override fun hashCode(): Int = name.hashCode() * 31 + categories.hashCode()
+
+    override fun toString(): String = "SBrand(name=$name, categories=$categories)"
+}
+
+class SCategory internal constructor(private val table: CatalogTable, private val category: Int) {
+    val name: String
+        get() = table.categoryName(category)
+
+    val models: List<SModel>
+        get() = table.modelsOf(category)
+
+    override fun equals(other: Any?): Boolean = other is SCategory &&
+            (other.table === table && other.category == category || other.name == name && other.models == models)
+
+    override fun hashCode(): Int = name.hashCode() * 31 + models.hashCode()
+
+    override fun toString(): String = "SCategory(name=$name, models=$models)"
+}
+
+class SModel internal constructor(private val table: CatalogTable, private val model: Int) {
+    val identifier: String
+        get() = table.modelName(model)
+
+    val functions: List<IRDBFunction>
+        get() = table.functionsOf(model)
+
+    override fun equals(other: Any?): Boolean = other is SModel && (other.table === table && other.model == model ||
+            other.identifier == identifier && other.functions == functions)
+
+    override fun hashCode(): Int = identifier.hashCode() * 31 + functions.hashCode()
+
+    override fun toString(): String = "SModel(identifier=$identifier, functions=$functions)"
+}
@@ -12,6 +12,7 @@ import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.vector.ImageVector
 import androidx.compose.ui.unit.dp
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.Transient
 
 @Serializable
 data class IRDBFunction(
@@ -21,10 +22,12 @@ data class IRDBFunction(
     val subdevice: Int,
     val function: Int,
 ) {
-    val identifier: String
-        get() {
-            return "'$functionName','$protocol','$device','$subdevice','$function'"
-        }
+    /**
+     * Identifies this function within its model. Functions with the same name and code share an id, since they send the
+     * same thing. Computed once, since it is read on every recomposition and as a cache key.
+     */
+    @Transient
+    val id: Long = StableId().add(functionName).add(protocol).add(device).add(subdevice).add(function).value
 
     val icon: ImageVector
         get() {
@@ -1,138 +1,317 @@
 package xyz.regulad.supir.irdb
 
 import android.content.Context
-import android.os.Build
 import android.util.Log
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.asFlow
-import kotlinx.coroutines.flow.flowOn
-import kotlinx.serialization.Serializable
-import xyz.regulad.regulib.FlowCache.Companion.asCached
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import xyz.regulad.supir.cache.BoundedCache
+import xyz.regulad.supir.irdb.TransmitterManager.isProtocolTransmittable
 import xyz.regulad.supir.irdb.TransmitterManager.isTransmittable
+import xyz.regulad.supir.makehex.IrdbCsvReader
 import java.io.InputStream
 
 private const val TAG = "IRDBLoader"
 
-private data class IndexEntry(val brandName: String, val modelCategory: String, val fileName: String)
+private data class IndexEntry(
+    val brandName: String,
+    val modelCategory: String,
+    val fileName: String,
+    val csvPath: String
+)
 
-@Serializable
-data class SBrand(val name: String, val categories: List<SCategory>)
+/**
+ * Reads the next valid function, or returns null once the input is exhausted.
+ */
+internal fun IrdbCsvReader.readFunction(): IRDBFunction? =
+    if (next()) IRDBFunction(functionName, protocol, device, subdevice, function) else null
 
-private data class Brand(private val context: Context, val name: String, private val indexEntries: List<IndexEntry>) {
-    val categories by lazy {
-        indexEntries
-            .groupBy { it.modelCategory }
-            .map { (category, entries) -> Category(context, name, category, entries) }
-            .filter { it.models.any() }
-            .sortedBy { it.name }
+/**
+ * Streams the transmittable functions of one model CSV into [onFunction].
+ */
+private fun readModelFunctions(context: Context, csvPath: String, onFunction: (IRDBFunction) -> Unit) {
+    val csvInputStream: InputStream = try {
+        context.assets.open(csvPath)
+    } catch (e: Exception) {
+        Log.e(TAG, "Failed to load $csvPath")
+        return
     }
 
-    val sBrand by lazy {
-        SBrand(name, categories.map { it.sCategory })
+    Log.d(TAG, "Loading $csvPath")
+
+    IrdbCsvReader(csvInputStream.reader()) { lineNumber, reason ->
+        Log.e(TAG, "Invalid line $csvPath:$lineNumber: $reason")
+    }.use { reader ->
+        while (true) {
+            val function = reader.readFunction() ?: break
+            if (function.isTransmittable(context)) onFunction(function)
+        }
     }
 }
 
-@Serializable
-data class SCategory(val name: String, val models: List<SModel>)
+/**
+ * Reads `codes/index` into the model files of each brand, sorted by brand name.
+ */
+private fun csvBrandIndex(context: Context): Map<String, List<IndexEntry>> {
+    // irdb has shipped both codes/Brand/Category/ and codes/Brand.Category/ layouts; list once instead of probing
+    val topLevelEntries = context.assets.list("codes")?.toSet() ?: emptySet()
 
-private data class Category(
-    private val context: Context,
-    private val brandName: String,
-    val name: String,
-    private val indexEntries: List<IndexEntry>
-) {
-    val models by lazy {
-        indexEntries
-            .map { Model(context, brandName, name, it.fileName) }
-            .filter { it.functions.any() }
-            .sortedBy { it.identifier }
+    return context.assets.open("codes/index")
+        .reader()
+        .readLines()
+        .filter { it.isNotBlank() }
+        .map {
+            val (brandName, modelCategory, fileName) = it.split("/")
+            val directory = if ("$brandName.$modelCategory" in topLevelEntries) {
+                "codes/$brandName.$modelCategory"
+            } else {
+                "codes/$brandName/$modelCategory"
+            }
+            IndexEntry(brandName, modelCategory, fileName.removeSuffix(".csv"), "$directory/$fileName")
+        }
+        .groupBy { it.brandName }
+        .toSortedMap()
+}
+
+// parsing is CPU bound, so there is nothing to gain from more threads than cores
+private val catalogParallelism = Runtime.getRuntime().availableProcessors()
+
+/**
+ * Parses every model CSV of one brand into a table of its own, which has no brands if nothing in it is transmittable.
+ *
+ * Up to [parallelism] models are parsed at a time, but they are still added to the table one by one in sorted order as
+ * soon as they and every model before them are done. Only a few models are parsed ahead of the one being waited on, so
+ * a large brand never holds all of its functions as objects at once.
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+private suspend fun loadCsvBrand(
+    context: Context,
+    brandName: String,
+    entries: List<IndexEntry>,
+    parallelism: Int,
+): CatalogTable {
+    val builder = CatalogTable.Builder().beginBrand(brandName)
+    var categoryName: String? = null
+
+    fun parseModel(entry: IndexEntry): List<IRDBFunction> =
+        ArrayList<IRDBFunction>().apply { readModelFunctions(context, entry.csvPath) { add(it) } }
+
+    fun addModel(entry: IndexEntry, functions: List<IRDBFunction>) {
+        if (entry.modelCategory != categoryName) {
+            categoryName = entry.modelCategory
+            builder.beginCategory(entry.modelCategory)
+        }
+        builder.beginModel(entry.fileName)
+        functions.forEach { builder.addFunction(it) }
     }
 
-    val sCategory by lazy {
-        SCategory(name, models.map { it.sModel })
+    val dispatcher = Dispatchers.IO.limitedParallelism(parallelism)
+
+    coroutineScope {
+        val pending = ArrayDeque<Pair<IndexEntry, Deferred<List<IRDBFunction>>>>()
+
+        suspend fun addNextModel() {
+            val (entry, functions) = pending.removeFirst()
+            addModel(entry, functions.await())
+        }
+
+        for (entry in entries.sortedWith(compareBy({ it.modelCategory }, { it.fileName }))) {
+            pending.addLast(entry to async(dispatcher) { parseModel(entry) })
+            if (pending.size >= parallelism * 2) addNextModel()
+        }
+
+        while (pending.isNotEmpty()) addNextModel()
     }
+
+    return builder.build()
 }
 
+/**
+ * A view of the code database for browsing, which only loads the part that is being looked at.
+ *
+ * Listing brands never reads a model. A brand's categories, a category's models, and a model's functions are read the
+ * first time they are asked for and kept after that. All of these block or suspend on reads, so call them off the main
+ * thread.
+ */
+internal interface IrdbCatalog {
+    /**
+     * The sorted names of all brands. With the packed store, brands without anything this device can transmit are
+     * left out; without it, brands come straight from `codes/index` and may turn out to be empty once opened.
+     */
+    fun brandNames(): List<String>
 
-@Serializable
-data class SModel(val identifier: String, val functions: List<IRDBFunction>)
+    /**
+     * The sorted names of the categories of [brandName] that have at least one transmittable model.
+     */
+    suspend fun categoryNames(brandName: String): List<String>
 
-private data class Model(
-    private val context: Context,
-    private val brandName: String,
-    val category: String,
-    val identifier: String
-) {
-    val sModel by lazy {
-        SModel(identifier, functions)
-    }
+    /**
+     * The sorted identifiers of the models in a category that have at least one transmittable function.
+     */
+    suspend fun modelIdentifiers(brandName: String, categoryName: String): List<String>
+
+    /**
+     * The transmittable functions of a model, in file order.
+     */
+    suspend fun functions(model: ModelCoordinate): List<IRDBFunction>
+
+    /**
+     * The model with the given [ModelCoordinate.id], or null if there is none.
+     */
+    fun model(id: Long): ModelCoordinate?
 
     companion object {
-        private val functionMap = mutableMapOf<Triple<String, String, String>, List<IRDBFunction>>()
+        fun open(context: Context): IrdbCatalog {
+            Log.d(TAG, "Opening IRDB catalog")
+
+            return IrdbStore.open(context)?.let { StoreCatalog(context, it) } ?: run {
+                Log.w(TAG, "Falling back to browsing the CSV code database")
+                CsvCatalog(context)
+            }
+        }
     }
+}
+
+/**
+ * Filters with the protocol masks packed into the store, so nothing is decoded until a model is opened.
+ */
+private class StoreCatalog(private val context: Context, private val store: IrdbStore) : IrdbCatalog {
+    private val transmittableProtocols by lazy { store.protocolSet { isProtocolTransmittable(context, it) } }
 
-    val functions by lazy {
-        functionMap.getOrPut(Triple(brandName, category, identifier)) {
-            val csvInputStream: InputStream = try {
-                context.assets.open("codes/$brandName.$category/$identifier.csv")
-            } catch (e: Exception) {
-                try {
-                    context.assets.open("codes/$brandName/$category/$identifier.csv")
-                } catch (e: Exception) {
-                    Log.e(TAG, "Failed to load $brandName/$category/$identifier.csv")
-                    return@lazy emptyList<IRDBFunction>()
+    private val brands by lazy {
+        (0 until store.brandCount)
+            .filter { store.brandUsesAny(it, transmittableProtocols) }
+            .associateBy { store.brandName(it) }
+    }
+
+    // name to index maps, built for a brand or category the first time something under it is looked up
+    private val categoryIndexes = BoundedCache<Int, Map<String, Int>>(
+        "store category indexes",
+        maxWeight = 4_096,
+        weigher = { _, index -> maxOf(1, index.size) }
+    )
+    private val modelIndexes = BoundedCache<Int, Map<String, Int>>(
+        "store model indexes",
+        maxWeight = 16_384,
+        weigher = { _, index -> maxOf(1, index.size) }
+    )
+
+    // decoded once per model, so opening a model again hands out the same functions instead of decoding new ones
+    private val functionLists = BoundedCache<Int, List<IRDBFunction>>(
+        "store functions",
+        maxWeight = 8_192,
+        weigher = { _, functions -> maxOf(1, functions.size) }
+    )
+
+    private fun category(brandName: String, categoryName: String): Int? {
+        val brand = brands[brandName] ?: return null
+        return categoryIndexes.getOrPut(brand) {
+            store.categoriesOf(brand).associateBy { store.categoryName(it) }
+        }[categoryName]
+    }
+
+    private fun model(model: ModelCoordinate): Int? {
+        val category = category(model.brandName, model.categoryName) ?: return null
+        return modelIndexes.getOrPut(category) {
+            store.modelsOf(category).associateBy { store.modelName(it) }
+        }[model.modelIdentifier]
+    }
+
+    override fun brandNames(): List<String> = brands.keys.toList()
+
+    override suspend fun categoryNames(brandName: String): List<String> = brands[brandName]
+        ?.let { store.categoriesOf(it) }
+        ?.filter { store.categoryUsesAny(it, transmittableProtocols) }
+        ?.map { store.categoryName(it) }
+        ?: emptyList()
+
+    override suspend fun modelIdentifiers(brandName: String, categoryName: String): List<String> =
+        category(brandName, categoryName)
+            ?.let { store.modelsOf(it) }
+            ?.filter { store.modelUsesAny(it, transmittableProtocols) }
+            ?.map { store.modelName(it) }
+            ?: emptyList()
+
+    override suspend fun functions(model: ModelCoordinate): List<IRDBFunction> =
+        model(model)
+            ?.let { modelIndex ->
+                functionLists.getOrPut(modelIndex) {
+                    store.functionsOf(modelIndex).map { store.function(it) }.filter { it.isTransmittable(context) }
                 }
             }
+            ?: emptyList()
 
-            Log.d(TAG, "Loading $brandName/$category/$identifier.csv")
-
-            csvInputStream.reader()
-                .readLines()
-                .drop(1) // Skip header
-                .filter { it.isNotBlank() }
-                .mapNotNull { line ->
-                    val parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)".toRegex()).map { it.trim('"') }
-                    if (parts.size != 5) {
-                        Log.e(TAG, "Invalid line: $line")
-                        null
-                    } else {
-                        val (functionName, protocol, device, subdevice, function) = parts
-                        IRDBFunction(
-                            functionName,
-                            protocol,
-                            device.toInt(),
-                            subdevice.toInt(),
-                            function.toInt()
-                        )
+    // built on the first lookup by id, which reads every name in the store but no functions
+    private val modelsById by lazy {
+        HashMap<Long, ModelCoordinate>().apply {
+            for (brand in brands.values) {
+                val brandName = store.brandName(brand)
+                for (category in store.categoriesOf(brand)) {
+                    val categoryName = store.categoryName(category)
+                    for (model in store.modelsOf(category)) {
+                        val coordinate = ModelCoordinate(brandName, categoryName, store.modelName(model))
+                        put(coordinate.id, coordinate)
                     }
                 }
-                .filter { it.isTransmittable(context) }
-                .toList()
+            }
         }
     }
+
+    override fun model(id: Long): ModelCoordinate? = modelsById[id]
 }
 
-internal fun loadAllBrands(context: Context): Flow<SBrand> {
-    Log.d(TAG, "Loading IRDB Index")
+/**
+ * Lists brands from `codes/index` and only parses the CSVs of the brand that is opened, [parallelism] models at a time.
+ */
+internal class CsvCatalog(
+    private val context: Context,
+    private val parallelism: Int = catalogParallelism,
+) : IrdbCatalog {
+    private val index by lazy { csvBrandIndex(context) }
 
-    val versionNumber = context.packageManager.getPackageInfo(context.packageName, 0).versionCode
+    // weighed by function count; a brand is parsed again if it was evicted
+    private val brandTables = BoundedCache<String, CatalogTable>(
+        "csv brands",
+        maxWeight = 20_000,
+        weigher = { _, table -> maxOf(1, table.functionCount) }
+    )
 
-    return context.assets.open("codes/index")
-        .reader()
-        .readLines()
-        .asSequence()
-        .map {
-            val (brandName, modelCategory, fileName) = it.split("/")
-            IndexEntry(brandName, modelCategory, fileName.removeSuffix(".csv"))
-        }
-        .groupBy { it.brandName } // terminal
-        .asSequence()
-        .sortedBy { it.key } // from here on, do things on demand
-        .map { (brandName, entries) -> Brand(context, brandName, entries) }
-        .filter { it.categories.any() }
-        .map { it.sBrand }
-        .asFlow()
-        .flowOn(Dispatchers.IO)
-        .asCached(context, "${Build.BOARD}+${versionNumber}")
+    private suspend fun brand(brandName: String): SBrand? {
+        val entries = index[brandName] ?: return null
+
+        // parsed before touching the cache again, so nothing waits on the cache while a brand is parsed
+        val table = brandTables[brandName]
+            ?: brandTables.putIfAbsent(brandName, loadCsvBrand(context, brandName, entries, parallelism))
+
+        return table.brands.firstOrNull()
+    }
+
+    private suspend fun category(brandName: String, categoryName: String): SCategory? =
+        brand(brandName)?.categories?.find { it.name == categoryName }
+
+    override fun brandNames(): List<String> = index.keys.toList()
+
+    override suspend fun categoryNames(brandName: String): List<String> =
+        brand(brandName)?.categories?.map { it.name } ?: emptyList()
+
+    override suspend fun modelIdentifiers(brandName: String, categoryName: String): List<String> =
+        category(brandName, categoryName)?.models?.map { it.identifier } ?: emptyList()
+
+    override suspend fun functions(model: ModelCoordinate): List<IRDBFunction> =
+        category(model.brandName, model.categoryName)
+            ?.models
+            ?.find { it.identifier == model.modelIdentifier }
+            ?.functions
+            ?: emptyList()
+
+    private val modelsById by lazy {
+        index.values
+            .flatten()
+            .map { ModelCoordinate(it.brandName, it.modelCategory, it.fileName) }
+            .associateBy { it.id }
+    }
+
+    override fun model(id: Long): ModelCoordinate? = modelsById[id]
 }
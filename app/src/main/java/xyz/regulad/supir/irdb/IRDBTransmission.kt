@@ -1,92 +1,206 @@
 package xyz.regulad.supir.irdb
 
 import android.content.Context
-import android.content.Context.CONSUMER_IR_SERVICE
-import android.hardware.ConsumerIrManager
-import android.hardware.ConsumerIrManager.CarrierFrequencyRange
-import android.util.Log
 import com.obd.infrared.patterns.PatternAdapter
-import com.obd.infrared.patterns.PatternConverter
-import com.obd.infrared.patterns.PatternType
 import com.obd.infrared.transmit.TransmitInfo
 import com.obd.infrared.transmit.Transmitter
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
-import kotlinx.coroutines.withContext
-import xyz.regulad.supir.irdb.IrEncoder.getFrequency
-import xyz.regulad.supir.irdb.IrEncoder.initialTimingString
-import xyz.regulad.supir.irdb.IrEncoder.repeatTimingString
-import xyz.regulad.supir.irdb.TransmitterManager.transmitSuspending
+import com.obd.infrared.transmit.TransmitterType
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.delay
+import xyz.regulad.supir.irdb.TransmitterManager.scheduler
+import xyz.regulad.supir.makehex.EncodedPattern
+import xyz.regulad.supir.makehex.joinFrames
 import java.util.*
-
-fun CarrierFrequencyRange.contains(frequency: Int): Boolean {
-    return frequency in minFrequency..maxFrequency
-}
+import java.util.concurrent.TimeUnit
 
 object TransmitterManager {
-    private val transmitterMutexMap = Collections.synchronizedMap(WeakHashMap<Transmitter, Mutex>())
-
-    suspend fun Transmitter.transmitSuspending(transmitInfo: TransmitInfo) {
-        val mutex = transmitterMutexMap.getOrPut(this) { Mutex() }
-        mutex.withLock {
-            withContext(Dispatchers.IO) {
-                transmit(transmitInfo) // hard block, run on dispatcher
-            }
-        }
+    // a scheduler holds its transmitter weakly, so an entry goes away with its transmitter
+    private val schedulers = WeakHashMap<Transmitter, TransmitScheduler>()
+
+    /**
+     * The scheduler that owns this transmitter. Everything the app sends goes through it.
+     */
+    val Transmitter.scheduler: TransmitScheduler
+        get() = synchronized(schedulers) { schedulers.getOrPut(this) { TransmitScheduler(this) } }
+
+    /**
+     * Closes the scheduler of this transmitter, if it has one, once whoever owns the transmitter is done with it. See
+     * [TransmitScheduler.close]. Using [scheduler] after this starts a new one.
+     */
+    fun Transmitter.closeScheduler() {
+        synchronized(schedulers) { schedulers.remove(this) }?.close()
     }
 
-    private val protocolCompatibilityCache = mutableMapOf<String, Boolean>()
+    /**
+     * The carrier frequencies this device can transmit, from its [TransmitterProfile].
+     */
+    fun carrierCapabilities(context: Context): CarrierCapabilities = TransmitterProfile.current(context).carrierCapabilities
 
-    fun IRDBFunction.isTransmittable(context: Context): Boolean =
-        // dedupe mixed case protocols, they are all the same
-        protocolCompatibilityCache.getOrPut(protocol.uppercase()) {
-            // as far as frequency is concerned, the IRP is equivalent for any members of the same protocol
-            Log.d("TransmitterManager", "Checking compatibility for $protocol")
-            getFrequency(context)?.let { freq ->
-                // if the device has ConsumerIRManager, check to see if the frequency is supported
-                // if the device does not have ConsumerIRManager, we can assume that the frequency is supported
+    fun isProtocolTransmittable(context: Context, protocol: String): Boolean =
+        // as far as frequency is concerned, the IRP is equivalent for any members of the same protocol
+        carrierCapabilities(context).supports(ProtocolRegistry.frequency(protocol.uppercase()))
 
-                val irService = context.getSystemService(CONSUMER_IR_SERVICE) as ConsumerIrManager?
-                irService == null || irService.carrierFrequencies.any { it.contains(freq.toInt()) }
-            } ?: false
-        }
+    fun IRDBFunction.isTransmittable(context: Context): Boolean = isProtocolTransmittable(context, protocol)
 }
 
-suspend fun Transmitter.transmitMicrosecondIntArray(frequency: Int, pattern: IntArray) {
-    val patternConverter =
-        PatternConverter(PatternType.Intervals, frequency, *pattern)
-
-    val patternAdapter = PatternAdapter(transmitterType)
-
-    val transmitInfo = patternAdapter.createTransmitInfo(patternConverter)
-
-    // this is a blocking call: we do not need to repeat; the timing string includes a repeat (except special cases)
-
-    transmitSuspending(transmitInfo)
+/**
+ * One frame adapted for a transmitter, along with the encoded [pattern] it was adapted from.
+ */
+class TransmitFrame(val pattern: EncodedPattern, val transmitInfo: TransmitInfo) {
+    /**
+     * How long after this frame started the next frame is due, in nanoseconds.
+     */
+    val period: Long = TimeUnit.MICROSECONDS.toNanos(pattern.duration)
+
+    companion object {
+        fun of(pattern: EncodedPattern, patternAdapter: PatternAdapter) =
+            TransmitFrame(pattern, patternAdapter.createTransmitInfo(pattern.frequency, pattern.pattern))
+    }
 }
 
-/*
- * Transmit the IRDBFunction blockingly
+/**
+ * An [IRDBFunction] encoded and adapted for one type of transmitter.
+ *
+ * The frames are built once, when the function is prepared, and the same [TransmitInfo]s are handed to the
+ * transmitter on every send, so holding a button does not encode or allocate anything per frame.
  */
-suspend fun IRDBFunction.transmitInitialPattern(context: Context, transmitter: Transmitter) {
-    // we need to create the battery
+class PreparedFunction(
+    val function: IRDBFunction,
+    val transmitterType: TransmitterType,
+    val initialFrame: TransmitFrame,
+    val repeatFrame: TransmitFrame?,
+) {
+    val canRepeat: Boolean
+        get() = repeatFrame != null
+}
 
-    val (frequency, timingString) = initialTimingString(context)
+/**
+ * Encode the IRDBFunction for [transmitter], or take its frames from the [PatternCache] if it was encoded before.
+ *
+ * This may compile a protocol and read the cache from disk, so call it off the main thread.
+ *
+ * @throws UnsupportedOperationException if the protocol of the function cannot be encoded
+ */
+fun IRDBFunction.prepare(context: Context, transmitter: Transmitter): PreparedFunction {
+    val transmitterType = transmitter.transmitterType
+    val initialFrame = PatternCache.frame(context, this, false, transmitterType)
         ?: throw UnsupportedOperationException("Failed to get timing string for $protocol")
 
-    Log.d("IRDBFunction", "$protocol (init) $device $subdevice $function -> ${timingString.joinToString(" ")}")
+    return PreparedFunction(this, transmitterType, initialFrame, PatternCache.frame(context, this, true, transmitterType))
+}
+
+// a repeat frame that waited longer than this would arrive after the receiver expected the next one
+private const val REPEAT_STALE_AFTER = 100_000_000L
 
-    transmitter.transmitMicrosecondIntArray(frequency.toInt(), timingString.map { it.toInt() }.toIntArray())
+/**
+ * Sends the initial frame as a press, ahead of anything else queued for [transmitter], and waits until it was sent.
+ *
+ * @return when the frame started to go out, on the [System.nanoTime] clock
+ * @throws IllegalStateException if the transmitter is too busy with other presses to take it
+ */
+suspend fun PreparedFunction.transmitInitialPattern(transmitter: Transmitter): Long {
+    // the timing string includes a repeat (except special cases), so a tap needs nothing else
+    val startedAt = transmitter.scheduler.sendAt(initialFrame.transmitInfo, TransmitScheduler.Priority.PRESS, System.nanoTime())
+    if (startedAt == TransmitScheduler.NOT_SENT) throw IllegalStateException("Transmitter is busy")
+    return startedAt
 }
 
-suspend fun IRDBFunction.transmitRepeatPattern(context: Context, transmitter: Transmitter) {
-    // we need to create the battery
+/**
+ * Sends repeat frames until cancelled, each one frame period after the previous frame started, beginning with the
+ * period of the initial frame sent at [initialStartedAt].
+ *
+ * Frames are scheduled against when the previous one actually started rather than slept for after it finished, so how
+ * long the transmitter takes to send a frame does not add up over a long hold. A frame that could not be sent in time
+ * is skipped, and the next one is due a period later.
+ *
+ * Only one frame is ever queued ahead, so cancelling stops it within a frame period; see [stopRepeats].
+ */
+suspend fun PreparedFunction.transmitRepeatsUntilCancelled(transmitter: Transmitter, initialStartedAt: Long) {
+    val repeatFrame = repeatFrame ?: throw UnsupportedOperationException("${function.protocol} cannot repeat")
+    val scheduler = transmitter.scheduler
+
+    var dueAt = initialStartedAt + initialFrame.period
+    while (true) {
+        val startedAt = scheduler.sendAt(
+            repeatFrame.transmitInfo,
+            TransmitScheduler.Priority.REPEAT,
+            dueAt,
+            REPEAT_STALE_AFTER,
+        )
+        if (startedAt == TransmitScheduler.NOT_SENT) {
+            // a refused frame comes back without waiting, so wait out its slot before trying the next one
+            dueAt = maxOf(dueAt, System.nanoTime()) + repeatFrame.period
+            delay(TimeUnit.NANOSECONDS.toMillis(dueAt - System.nanoTime()))
+        } else {
+            dueAt = startedAt + repeatFrame.period
+        }
+    }
+}
 
-    val (frequency, timingString) = repeatTimingString(context)
-        ?: throw UnsupportedOperationException("Failed to get timing string for $protocol")
+/**
+ * Cancels [repeats], the job sending [transmitRepeatsUntilCancelled] on this transmitter, and waits until the frame
+ * that was going out when it was cancelled, if any, has finished. Nothing is sent after that.
+ *
+ * @return the release latency: how many nanoseconds after this was called the last frame finished, or 0 if none was
+ * going out
+ */
+suspend fun Transmitter.stopRepeats(repeats: Job): Long {
+    val releasedAt = System.nanoTime()
+    repeats.cancelAndJoin()
+    return maxOf(0L, scheduler.awaitQuiet() - releasedAt)
+}
 
-    Log.d("IRDBFunction", "$protocol (rep.) $device $subdevice $function -> ${timingString.joinToString(" ")}")
+/**
+ * Sends the initial frame followed by exactly [repeats] repeat frames as a press, joined into as few transmit calls as
+ * fit in [maxPatternDuration] microseconds, and waits until all of it was sent.
+ *
+ * Within one call the frames are exactly one frame period apart, and each call is due as soon as the previous one is
+ * over, so a long burst is only split between frames. Cancelling stops the burst after the call in progress.
+ *
+ * Once the transmitter was profiled, calls are only as long as it takes to make their overhead small, see
+ * [TransmitLatency.burstDuration], so a device with cheap calls also stops sooner.
+ *
+ * This is how the function screen sends a function with a chosen number of repeats. A held button goes through
+ * [transmitRepeatsUntilCancelled] one frame per call instead, which stops sooner on release than a burst can.
+ *
+ * @return when the burst started to go out, on the [System.nanoTime] clock
+ * @throws UnsupportedOperationException if repeats were asked for and the protocol cannot repeat
+ * @throws IllegalStateException if the transmitter is too busy with other presses to take it
+ */
+suspend fun PreparedFunction.transmitBurst(
+    transmitter: Transmitter,
+    repeats: Int,
+    maxPatternDuration: Int = TransmitterProfile.DEFAULT_MAX_PATTERN_DURATION,
+): Long {
+    require(repeats >= 0) { "Cannot send $repeats repeats" }
+    if (repeats > 0 && repeatFrame == null) throw UnsupportedOperationException("${function.protocol} cannot repeat")
+
+    val frames = ArrayList<EncodedPattern>(repeats + 1)
+    frames += initialFrame.pattern
+    repeat(repeats) { frames += repeatFrame!!.pattern }
+
+    val scheduler = transmitter.scheduler
+    val frameDuration = (repeatFrame ?: initialFrame).pattern.duration
+    val burstDuration = scheduler.latency?.burstDuration(frameDuration, maxPatternDuration) ?: maxPatternDuration
 
-    transmitter.transmitMicrosecondIntArray(frequency.toInt(), timingString.map { it.toInt() }.toIntArray())
+    val patternAdapter = PatternAdapter(transmitterType)
+    val bursts = joinFrames(frames, burstDuration.toLong()).map {
+        // a frame that was not joined with any other is already adapted
+        when {
+            it === initialFrame.pattern -> initialFrame
+            it === repeatFrame?.pattern -> repeatFrame
+            else -> TransmitFrame.of(it, patternAdapter)
+        }
+    }
+
+    var burstStartedAt = TransmitScheduler.NOT_SENT
+    var dueAt = System.nanoTime()
+    for (burst in bursts) {
+        val startedAt = scheduler.sendAt(burst.transmitInfo, TransmitScheduler.Priority.PRESS, dueAt)
+        if (startedAt == TransmitScheduler.NOT_SENT) throw IllegalStateException("Transmitter is busy")
+        if (burstStartedAt == TransmitScheduler.NOT_SENT) burstStartedAt = startedAt
+        dueAt = startedAt + burst.period
+    }
+    return burstStartedAt
 }
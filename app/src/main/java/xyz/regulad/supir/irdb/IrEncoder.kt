@@ -0,0 +1,72 @@
+package xyz.regulad.supir.irdb
+
+import android.util.Log
+import xyz.regulad.supir.cache.BoundedCache
+import xyz.regulad.supir.makehex.EncodedPattern
+import xyz.regulad.supir.makehex.IRPProcessor
+import xyz.regulad.supir.makehex.IrpBinding
+import xyz.regulad.supir.makehex.PulseBuffer
+
+object IrEncoder {
+    private const val TAG = "IrEncoder"
+
+    // protocols are compiled once and shared; a null processor remembers that a protocol is unknown or invalid
+    private class CompiledProtocol(val processor: IRPProcessor?)
+
+    private val protocolCache = BoundedCache<String, CompiledProtocol>("compiled protocols", maxWeight = 256)
+
+    /**
+     * A hash of every protocol definition, which changes whenever one of them does.
+     */
+    val protocolDefinitionsHash: Int
+        get() = ProtocolRegistry.DEFINITIONS_HASH
+
+    private fun compileProtocol(protocol: String): CompiledProtocol {
+        val processor = ProtocolRegistry.definition(protocol)?.let { definition ->
+            try {
+                IRPProcessor.compile(definition)
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to compile protocol $protocol", e)
+                null
+            }
+        }
+
+        Log.d(TAG, "Compiled protocol $protocol (valid: ${processor != null})")
+
+        return CompiledProtocol(processor)
+    }
+
+    fun getIrpProcessor(protocol: String): IRPProcessor? {
+        val key = protocol.uppercase()
+        return protocolCache.getOrPut(key) { compileProtocol(key) }.processor
+    }
+
+    fun IRDBFunction.getIrpProcessor(): IRPProcessor? = getIrpProcessor(protocol)
+
+    val IRDBFunction.irpBinding: IrpBinding
+        get() = IrpBinding(device, subdevice, function)
+
+    fun IRDBFunction.getFrequency(): Double? {
+        val irpProcessor = getIrpProcessor() ?: return null
+        return irpProcessor.frequency
+    }
+
+    private val pulseBuffers = object : ThreadLocal<PulseBuffer>() {
+        override fun initialValue() = PulseBuffer()
+    }
+
+    /**
+     * Encodes one frame of [binding] into a transmit-ready pattern, using a scratch buffer owned by the calling thread.
+     */
+    fun IRPProcessor.encodePattern(binding: IrpBinding, isRepeat: Boolean): EncodedPattern {
+        val buffer = pulseBuffers.get()!!
+        encode(binding, isRepeat, buffer)
+        return EncodedPattern(frequency.toInt(), buffer.toIntArray())
+    }
+
+    fun IRDBFunction.initialPattern(): EncodedPattern? =
+        getIrpProcessor()?.encodePattern(irpBinding, false)
+
+    fun IRDBFunction.repeatPattern(): EncodedPattern? =
+        getIrpProcessor()?.takeIf { it.canRepeat }?.encodePattern(irpBinding, true)
+}
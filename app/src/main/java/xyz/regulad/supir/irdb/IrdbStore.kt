@@ -0,0 +1,172 @@
+package xyz.regulad.supir.irdb
+
+import android.content.Context
+import android.util.Log
+import java.io.FileInputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+/**
+ * Memory-maps an asset, which must be stored uncompressed in the APK.
+ *
+ * @throws IOException if there is no such asset, or it is compressed
+ */
+internal fun mapAsset(context: Context, assetName: String): ByteBuffer =
+    context.assets.openFd(assetName).use { descriptor ->
+        FileInputStream(descriptor.fileDescriptor).channel.use { channel ->
+            channel.map(FileChannel.MapMode.READ_ONLY, descriptor.startOffset, descriptor.length)
+        }
+    }
+
+/**
+ * Read-only view of `irdb.bin`, the packed code database that `PackIrdb` in `makehex` generates from `codes/` at build
+ * time.
+ *
+ * The file is stored uncompressed in the APK and memory-mapped, so opening the catalog costs one asset open instead of
+ * one per model, and nothing is parsed until it is asked for. See `PackIrdb` for the layout.
+ */
+internal class IrdbStore private constructor(private val buffer: ByteBuffer) {
+    private val stringCount = buffer.getInt(12)
+    val brandCount = buffer.getInt(16)
+    val categoryCount = buffer.getInt(20)
+    val modelCount = buffer.getInt(24)
+    val functionCount = buffer.getInt(28)
+    val protocolCount = buffer.getInt(32)
+
+    private val stringOffsetsStart = HEADER_SIZE
+    private val stringDataStart = stringOffsetsStart + (stringCount + 1) * 4
+    private val brandsStart = stringDataStart + buffer.getInt(stringOffsetsStart + stringCount * 4).let { (it + 3) and 3.inv() }
+    private val categoriesStart = brandsStart + brandCount * GROUP_RECORD_SIZE
+    private val modelsStart = categoriesStart + categoryCount * GROUP_RECORD_SIZE
+    private val functionsStart = modelsStart + modelCount * GROUP_RECORD_SIZE
+    private val protocolsStart = functionsStart + functionCount * FUNCTION_RECORD_SIZE
+    private val maskWords = (protocolCount + 31) / 32
+    private val brandMasksStart = protocolsStart + protocolCount * 4
+    private val categoryMasksStart = brandMasksStart + brandCount * maskWords * 4
+    private val modelMasksStart = categoryMasksStart + categoryCount * maskWords * 4
+
+    // every string is decoded at most once, which also makes repeated protocol and function names share one instance
+    private val strings = arrayOfNulls<String>(stringCount)
+
+    private fun string(id: Int): String = strings[id] ?: run {
+        val start = buffer.getInt(stringOffsetsStart + id * 4)
+        val end = buffer.getInt(stringOffsetsStart + (id + 1) * 4)
+        val bytes = ByteArray(end - start)
+        buffer.duplicate().also { it.position(stringDataStart + start) }.get(bytes)
+        String(bytes, Charsets.UTF_8).also { strings[id] = it }
+    }
+
+    private fun groupRange(start: Int, index: Int): IntRange {
+        val first = buffer.getInt(start + index * GROUP_RECORD_SIZE + 4)
+        return first until first + buffer.getInt(start + index * GROUP_RECORD_SIZE + 8)
+    }
+
+    private fun usesAny(masksStart: Int, index: Int, protocols: IntArray): Boolean {
+        val maskStart = masksStart + index * maskWords * 4
+        for (word in 0 until maskWords) {
+            if (buffer.getInt(maskStart + word * 4) and protocols[word] != 0) return true
+        }
+        return false
+    }
+
+    fun protocolName(protocol: Int): String = string(buffer.getInt(protocolsStart + protocol * 4))
+
+    /**
+     * Builds a protocol set for [brandUsesAny], [categoryUsesAny], and [modelUsesAny] out of every protocol that
+     * satisfies [predicate].
+     */
+    fun protocolSet(predicate: (protocolName: String) -> Boolean): IntArray {
+        val protocols = IntArray(maskWords)
+        for (protocol in 0 until protocolCount) {
+            if (predicate(protocolName(protocol))) {
+                protocols[protocol / 32] = protocols[protocol / 32] or (1 shl (protocol % 32))
+            }
+        }
+        return protocols
+    }
+
+    fun brandUsesAny(brand: Int, protocols: IntArray): Boolean = usesAny(brandMasksStart, brand, protocols)
+
+    fun categoryUsesAny(category: Int, protocols: IntArray): Boolean = usesAny(categoryMasksStart, category, protocols)
+
+    fun modelUsesAny(model: Int, protocols: IntArray): Boolean = usesAny(modelMasksStart, model, protocols)
+
+    fun brandName(brand: Int): String = string(buffer.getInt(brandsStart + brand * GROUP_RECORD_SIZE))
+
+    fun categoriesOf(brand: Int): IntRange = groupRange(brandsStart, brand)
+
+    fun categoryName(category: Int): String = string(buffer.getInt(categoriesStart + category * GROUP_RECORD_SIZE))
+
+    fun modelsOf(category: Int): IntRange = groupRange(categoriesStart, category)
+
+    fun modelName(model: Int): String = string(buffer.getInt(modelsStart + model * GROUP_RECORD_SIZE))
+
+    fun functionsOf(model: Int): IntRange = groupRange(modelsStart, model)
+
+    fun function(function: Int): IRDBFunction {
+        val offset = functionsStart + function * FUNCTION_RECORD_SIZE
+        return IRDBFunction(
+            string(buffer.getInt(offset)),
+            string(buffer.getInt(offset + 4)),
+            buffer.getInt(offset + 8),
+            buffer.getInt(offset + 12),
+            buffer.getInt(offset + 16),
+        )
+    }
+
+    companion object {
+        private const val TAG = "IrdbStore"
+
+        private const val STORE_ASSET = "irdb.bin"
+        private const val FORMAT_VERSION = 2
+        private const val HEADER_SIZE = 36
+        private const val GROUP_RECORD_SIZE = 12
+        private const val FUNCTION_RECORD_SIZE = 20
+
+        /**
+         * The CRC32 of `codes/index`, or null if there is none.
+         */
+        fun indexCrc(context: Context): Int? = try {
+            val crc = CRC32()
+            context.assets.open("codes/index").use { input ->
+                val chunk = ByteArray(8192)
+                while (true) {
+                    val read = input.read(chunk)
+                    if (read == -1) break
+                    crc.update(chunk, 0, read)
+                }
+            }
+            crc.value.toInt()
+        } catch (e: IOException) {
+            null
+        }
+
+        /**
+         * Maps the packed database, or returns null if it is missing, from another format version, or was packed from
+         * a different `codes/index` than the one in the APK (for example, after the database was swapped out).
+         */
+        fun open(context: Context): IrdbStore? {
+            val buffer = try {
+                mapAsset(context, STORE_ASSET)
+            } catch (e: IOException) {
+                Log.w(TAG, "No packed code database available", e)
+                return null
+            }
+
+            if (buffer.getInt(0) != 0x53495244 /* "SIRD" */ || buffer.getInt(4) != FORMAT_VERSION) {
+                Log.w(TAG, "Packed code database has an unknown format")
+                return null
+            }
+
+            val indexCrc = indexCrc(context)
+            if (indexCrc != null && indexCrc != buffer.getInt(8)) {
+                Log.w(TAG, "Packed code database does not match codes/index")
+                return null
+            }
+
+            return IrdbStore(buffer)
+        }
+    }
+}
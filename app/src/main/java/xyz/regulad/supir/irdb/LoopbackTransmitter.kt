@@ -0,0 +1,158 @@
+package xyz.regulad.supir.irdb
+
+import android.content.Context
+import com.obd.infrared.patterns.PatternAdapterType
+import com.obd.infrared.transmit.TransmitInfo
+import com.obd.infrared.transmit.Transmitter
+import com.obd.infrared.transmit.TransmitterType
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * A transmitter without hardware, for the emulator, CI, and benchmarks: every frame is recorded into a ring buffer of
+ * the last [capacity] emissions instead of being sent, and the call blocks like a HAL with the given [behaviour] would.
+ *
+ * Recording does not allocate, so allocation tests can run against it, and patterns are adapted for [transmitterType]
+ * like they would be for the real thing.
+ */
+class LoopbackTransmitter(
+    context: Context? = null,
+    private val emulatedType: TransmitterType = TransmitterType.ACTUAL_NATIVE,
+    /**
+     * How long a call takes. This can be changed between calls.
+     */
+    @Volatile var behaviour: HalBehaviour = HalBehaviour.BLOCKING,
+    val capacity: Int = DEFAULT_CAPACITY,
+) : Transmitter(context) {
+    /**
+     * A HAL that takes `overhead + blockingRatio * pattern duration` nanoseconds per call, like [TransmitLatency]
+     * measures. The emission is assumed to start once the overhead was spent.
+     */
+    data class HalBehaviour(val overhead: Long, val blockingRatio: Double) {
+        companion object {
+            /**
+             * Returns once the pattern was sent, like most [android.hardware.ConsumerIrManager] implementations.
+             */
+            val BLOCKING = HalBehaviour(300_000L, 1.0)
+
+            /**
+             * Returns at once and sends in the background.
+             */
+            val NON_BLOCKING = HalBehaviour(300_000L, 0.0)
+
+            /**
+             * Takes no time at all, for tests that only care about what was sent.
+             */
+            val INSTANT = HalBehaviour(0L, 0.0)
+        }
+    }
+
+    /**
+     * One recorded frame. Times are on the [System.nanoTime] clock.
+     */
+    data class Emission(
+        val calledAt: Long,
+        val startedAt: Long,
+        val endedAt: Long,
+        val returnedAt: Long,
+        val transmitInfo: TransmitInfo,
+    )
+
+    private val calledAt = LongArray(capacity)
+    private val startedAt = LongArray(capacity)
+    private val endedAt = LongArray(capacity)
+    private val returnedAt = LongArray(capacity)
+    private val transmitInfos = arrayOfNulls<TransmitInfo>(capacity)
+
+    /**
+     * How many frames were recorded in total, including ones the ring buffer has dropped since.
+     */
+    @Volatile
+    var count = 0L
+        private set
+
+    override fun getTransmitterType(): TransmitterType = emulatedType
+
+    /**
+     * How long [transmitInfo] takes to send, in nanoseconds.
+     */
+    private fun duration(transmitInfo: TransmitInfo): Long {
+        val pattern = transmitInfo.pattern ?: run {
+            // "frequency,cycles,..."; emulating this allocates, since it has to be parsed
+            val cycles = transmitInfo.obsoleteSamsungPattern[0].toString().split(',').drop(1).sumOf { it.toLong() }
+            return cycles * 1_000_000_000L / transmitInfo.frequency
+        }
+
+        var total = 0L
+        for (pulse in pattern) total += pulse
+
+        return if (PatternAdapterType.getConverterType(emulatedType) == PatternAdapterType.ToIntervals) {
+            total * 1000L
+        } else {
+            total * 1_000_000_000L / transmitInfo.frequency
+        }
+    }
+
+    private fun sleepUntil(deadline: Long) {
+        while (true) {
+            val remaining = deadline - System.nanoTime()
+            if (remaining <= 0) return
+            LockSupport.parkNanos(remaining)
+        }
+    }
+
+    override fun transmit(transmitInfo: TransmitInfo) {
+        val behaviour = behaviour
+        val called = System.nanoTime()
+        val duration = duration(transmitInfo)
+        val started = called + behaviour.overhead
+        val returned = started + (behaviour.blockingRatio * duration).toLong()
+
+        sleepUntil(returned)
+
+        synchronized(this) {
+            val slot = (count % capacity).toInt()
+            calledAt[slot] = called
+            startedAt[slot] = started
+            endedAt[slot] = started + duration
+            returnedAt[slot] = System.nanoTime()
+            transmitInfos[slot] = transmitInfo
+            count++
+        }
+    }
+
+    /**
+     * The recorded frames still in the ring buffer, oldest first.
+     */
+    fun timeline(): List<Emission> = synchronized(this) {
+        val size = minOf(count, capacity.toLong()).toInt()
+        val first = count - size
+        List(size) {
+            val slot = ((first + it) % capacity).toInt()
+            Emission(calledAt[slot], startedAt[slot], endedAt[slot], returnedAt[slot], transmitInfos[slot]!!)
+        }
+    }
+
+    /**
+     * Writes [timeline] as CSV, one frame per line, with times in nanoseconds relative to the first frame.
+     */
+    fun exportTimeline(output: Appendable) {
+        val timeline = timeline()
+        val origin = timeline.firstOrNull()?.calledAt ?: 0L
+
+        output.append("called,started,ended,returned,frequency,pulses\n")
+        for (emission in timeline) {
+            output.append("${emission.calledAt - origin},${emission.startedAt - origin},${emission.endedAt - origin},")
+            output.append("${emission.returnedAt - origin},${emission.transmitInfo.frequency},")
+            output.append("${emission.transmitInfo.pattern?.size ?: -1}\n")
+        }
+    }
+
+    fun clear() = synchronized(this) {
+        transmitInfos.fill(null)
+        count = 0L
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 4096
+    }
+}
@@ -0,0 +1,344 @@
+package xyz.regulad.supir.irdb
+
+import android.content.Context
+import android.os.Process
+import android.util.Log
+import com.obd.infrared.patterns.PatternAdapter
+import com.obd.infrared.transmit.TransmitterType
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.yield
+import xyz.regulad.supir.cache.BoundedCache
+import xyz.regulad.supir.irdb.IrEncoder.encodePattern
+import xyz.regulad.supir.irdb.IrEncoder.getIrpProcessor
+import xyz.regulad.supir.irdb.IrEncoder.irpBinding
+import xyz.regulad.supir.makehex.EncodedPattern
+import xyz.regulad.supir.makehex.PatternTable
+import java.io.*
+import java.util.concurrent.Executors
+
+/**
+ * One frame of one function, independent of the transmitter it is sent with.
+ */
+internal data class FrameKey(
+    val protocol: String,
+    val device: Int,
+    val subdevice: Int,
+    val function: Int,
+    val isRepeat: Boolean,
+) {
+    companion object {
+        fun of(function: IRDBFunction, isRepeat: Boolean) =
+            FrameKey(function.protocol.uppercase(), function.device, function.subdevice, function.function, isRepeat)
+    }
+}
+
+/**
+ * An append-only file of encoded frames. A frame that a protocol does not have (a repeat frame of a protocol that
+ * cannot repeat) is stored as well, as null, so that it does not have to be looked up again either.
+ *
+ * ```
+ * header    "SPAT", version (int)
+ * frame     protocol (modified UTF-8), device, subdevice, function (ints), repeat (boolean),
+ *           frequency, length (ints, length -1 for no frame), then length ints of pattern
+ * ```
+ *
+ * A frame that was cut off, for example by the process being killed while it was written, ends the log. So does a
+ * frame with a length no frame can have, since nothing after it can be found. Everything before it is kept, and the
+ * file is truncated to where it started, so the next append follows the last whole frame.
+ */
+internal class PatternLog(private val file: File) {
+    private var output: DataOutputStream? = null
+
+    /**
+     * Counts the bytes read through it, so the reader knows where each frame started.
+     */
+    private class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+        var position = 0L
+            private set
+
+        override fun read(): Int = super.read().also { if (it >= 0) position++ }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int =
+            super.read(b, off, len).also { if (it > 0) position += it }
+
+        override fun skip(n: Long): Long = super.skip(n).also { position += it }
+    }
+
+    /**
+     * Reads every complete frame in the log. A log that is missing or was written by another version reads as empty.
+     */
+    fun read(): MutableMap<FrameKey, EncodedPattern?> {
+        val frames = HashMap<FrameKey, EncodedPattern?>()
+        if (!file.isFile) return frames
+
+        var frameStart = 0L
+        try {
+            val counter = CountingInputStream(BufferedInputStream(FileInputStream(file)))
+            DataInputStream(counter).use { input ->
+                if (input.readInt() != LOG_MAGIC || input.readInt() != LOG_VERSION) {
+                    Log.w(TAG, "Pattern log $file has an unknown format, starting over")
+                    file.delete()
+                    return frames
+                }
+
+                while (true) {
+                    frameStart = counter.position
+                    val key = try {
+                        FrameKey(input.readUTF(), input.readInt(), input.readInt(), input.readInt(), input.readBoolean())
+                    } catch (e: EOFException) {
+                        // only running out exactly between two frames is a clean end
+                        if (counter.position == frameStart) break else throw e
+                    }
+
+                    val frequency = input.readInt()
+                    val length = input.readInt()
+                    if (length < -1 || length > MAX_FRAME_LENGTH) {
+                        throw IOException("Frame of ${key.protocol} has an impossible length of $length")
+                    }
+                    frames[key] = if (length < 0) null else EncodedPattern(frequency, IntArray(length) { input.readInt() })
+                }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Pattern log $file is cut off after ${frames.size} frames", e)
+            truncate(frameStart)
+        }
+
+        return frames
+    }
+
+    private fun truncate(length: Long) {
+        try {
+            RandomAccessFile(file, "rw").use { it.setLength(length) }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to truncate pattern log $file, starting over", e)
+            file.delete()
+        }
+    }
+
+    fun append(key: FrameKey, pattern: EncodedPattern?) {
+        val out = output ?: run {
+            file.parentFile?.mkdirs()
+            val isNew = !file.isFile || file.length() == 0L
+            DataOutputStream(BufferedOutputStream(FileOutputStream(file, true))).also {
+                if (isNew) {
+                    it.writeInt(LOG_MAGIC)
+                    it.writeInt(LOG_VERSION)
+                }
+                output = it
+            }
+        }
+
+        out.writeUTF(key.protocol)
+        out.writeInt(key.device)
+        out.writeInt(key.subdevice)
+        out.writeInt(key.function)
+        out.writeBoolean(key.isRepeat)
+        out.writeInt(pattern?.frequency ?: 0)
+        out.writeInt(pattern?.pattern?.size ?: -1)
+        pattern?.pattern?.forEach { out.writeInt(it) }
+        out.flush()
+    }
+
+    fun close() {
+        output?.close()
+        output = null
+    }
+
+    private companion object {
+        const val TAG = "PatternLog"
+
+        const val LOG_MAGIC = 0x53504154 // "SPAT"
+        // 2: repeat frames are padded to the message time
+        const val LOG_VERSION = 2
+
+        // IRDB protocols encode to a few hundred durations at most, so a longer frame can only be a corrupt length
+        const val MAX_FRAME_LENGTH = 2_048
+    }
+}
+
+/**
+ * Remembers transmit-ready frames, so a button is sent without compiling or running its IRP.
+ *
+ * Frames adapted for a type of transmitter are kept in memory. Behind that, every function in the code database was
+ * encoded at build time into `patterns.bin`, a [PatternTable]. Only functions that are not in it, like when the
+ * database was swapped out without rebuilding, are encoded live, and those are kept in a [PatternLog] in the cache
+ * directory, which is read back the first time one is asked for after a restart.
+ *
+ * Adapting a frame for a transmitter is only arithmetic, so the table and the log hold frames from before that step.
+ * The log is named after the app version, which ships the encoder, and a hash of every protocol definition; when either
+ * changes, a new log is started and the old ones are deleted.
+ */
+internal object PatternCache {
+    private const val TAG = "PatternCache"
+
+    private const val PATTERN_TABLE_ASSET = "patterns.bin"
+
+    // a log this full stops growing; it only takes buttons that are actually used to get there
+    private const val MAX_LOGGED_FRAMES = 16_384
+
+    // a null frame remembers that a protocol has no frame of that kind
+    private class CachedFrame(val frame: TransmitFrame?)
+
+    private class EncodedFrame(val pattern: EncodedPattern?)
+
+    private val frames = BoundedCache<Pair<FrameKey, TransmitterType>, CachedFrame>(
+        "transmit frames",
+        maxWeight = 256 * 1024,
+        weigher = { _, cached -> maxOf(1, cached.frame?.transmitInfo?.pattern?.size ?: 1) }
+    )
+
+    private var patternTable: PatternTable? = null
+    private var patternTableOpened = false
+
+    private var log: PatternLog? = null
+    private var loggedFrames: MutableMap<FrameKey, EncodedPattern?>? = null
+
+    // held while the log is read, so only encodes that need the log wait for it
+    private val logReadLock = Any()
+
+    // appends are written in order, one at a time, off the thread that asked for the frame
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val logScope = CoroutineScope(SupervisorJob() + Dispatchers.IO.limitedParallelism(1))
+
+    // warming up never competes with the UI or with a press, which prepares on the IO dispatcher
+    private val warmUpDispatcher = Executors.newSingleThreadExecutor { runnable ->
+        Thread({
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+            runnable.run()
+        }, "PatternWarmUp").apply { isDaemon = true }
+    }.asCoroutineDispatcher()
+
+    private fun logFileName(context: Context): String {
+        val versionNumber = context.packageManager.getPackageInfo(context.packageName, 0).versionCode
+        return "$versionNumber-${Integer.toHexString(IrEncoder.protocolDefinitionsHash)}.bin"
+    }
+
+    private fun patternTable(context: Context): PatternTable? = synchronized(this) {
+        if (!patternTableOpened) {
+            patternTableOpened = true
+            patternTable = try {
+                PatternTable.read(mapAsset(context, PATTERN_TABLE_ASSET))
+            } catch (e: IOException) {
+                Log.w(TAG, "No precomputed patterns available", e)
+                null
+            }?.takeIf { table ->
+                // precomputed from another database than the one in the APK: none of it can be trusted
+                (IrdbStore.indexCrc(context) == table.indexCrc).also {
+                    if (!it) Log.w(TAG, "Precomputed patterns do not match codes/index")
+                }
+            }
+        }
+        patternTable
+    }
+
+    private fun loggedFrames(context: Context): MutableMap<FrameKey, EncodedPattern?> =
+        synchronized(this) { loggedFrames } ?: synchronized(logReadLock) {
+            synchronized(this) { loggedFrames } ?: run {
+                val directory = File(context.cacheDir, "patterns")
+                val fileName = logFileName(context)
+
+                // logs for other app versions or protocol definitions will never be read again
+                directory.listFiles { file -> file.name != fileName }?.forEach { it.delete() }
+
+                val patternLog = PatternLog(File(directory, fileName))
+                val frames = patternLog.read()
+                Log.d(TAG, "Read ${frames.size} frames from the pattern log")
+
+                synchronized(this) {
+                    log = patternLog
+                    loggedFrames = frames
+                }
+                frames
+            }
+        }
+
+    /**
+     * @return null if the protocol is unknown, which is not logged since compiling it already remembers that
+     */
+    private fun encode(context: Context, function: IRDBFunction, key: FrameKey): EncodedFrame? {
+        patternTable(context)?.let { table ->
+            val entry = table.find(key.protocol, key.device, key.subdevice, key.function)
+            if (entry >= 0) return EncodedFrame(if (key.isRepeat) table.repeatPattern(entry) else table.initialPattern(entry))
+        }
+
+        val logged = loggedFrames(context)
+        synchronized(this) {
+            if (key in logged) return EncodedFrame(logged[key])
+        }
+
+        val processor = function.getIrpProcessor() ?: return null
+        val pattern = processor.takeIf { !key.isRepeat || it.canRepeat }?.encodePattern(function.irpBinding, key.isRepeat)
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            with(function) {
+                Log.d(
+                    TAG,
+                    "$protocol (${if (key.isRepeat) "rep." else "init"}) $device $subdevice $function -> " +
+                            (pattern?.let { "${it.pattern.size} durations" } ?: "none")
+                )
+            }
+        }
+
+        synchronized(this) {
+            if (key !in logged && logged.size < MAX_LOGGED_FRAMES) {
+                logged[key] = pattern
+                val patternLog = log
+                logScope.launch {
+                    try {
+                        patternLog?.append(key, pattern)
+                    } catch (e: IOException) {
+                        Log.w(TAG, "Failed to log a frame of ${key.protocol}", e)
+                    }
+                }
+            }
+        }
+
+        return EncodedFrame(pattern)
+    }
+
+    /**
+     * The initial or repeat frame of [function], adapted for [transmitterType].
+     *
+     * This may compile a protocol and read the pattern log, so call it off the main thread.
+     *
+     * @return null if the protocol of [function] is unknown, or if a repeat frame was asked for and it cannot repeat
+     */
+    fun frame(
+        context: Context,
+        function: IRDBFunction,
+        isRepeat: Boolean,
+        transmitterType: TransmitterType
+    ): TransmitFrame? {
+        val key = FrameKey.of(function, isRepeat)
+
+        frames.get(key to transmitterType)?.let { return it.frame }
+
+        val pattern = (encode(context, function, key) ?: return null).pattern
+
+        val frame = pattern?.let { TransmitFrame.of(it, PatternAdapter(transmitterType)) }
+        return frames.getOrPut(key to transmitterType) { CachedFrame(frame) }.frame
+    }
+
+    /**
+     * Encodes the initial and repeat frames of every function in [functions] ahead of their first press, one function
+     * at a time on a low priority thread. Cancelling stops it before the next function.
+     */
+    suspend fun warmUp(context: Context, functions: List<IRDBFunction>, transmitterType: TransmitterType) =
+        withContext(warmUpDispatcher) {
+            for (function in functions) {
+                yield() // lets a warm-up for the screen being looked at go in between
+                try {
+                    frame(context, function, false, transmitterType)
+                    frame(context, function, true, transmitterType)
+                } catch (e: Exception) {
+                    Log.w(TAG, "Failed to warm up ${function.functionName} (${function.protocol})", e)
+                }
+            }
+        }
+}
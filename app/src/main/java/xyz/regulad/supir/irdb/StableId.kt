@@ -0,0 +1,38 @@
+package xyz.regulad.supir.irdb
+
+/**
+ * Builds 64-bit FNV-1a hashes to use as ids for things in the catalog.
+ *
+ * Ids only depend on content, never on where something sits in the catalog, so an id that was saved (like a favorite)
+ * still points at the same thing after the code database is updated, as long as that thing is still in it.
+ */
+internal class StableId {
+    var value = OFFSET_BASIS
+        private set
+
+    private fun mix(byte: Int) {
+        value = (value xor (byte and 0xFF).toLong()) * PRIME
+    }
+
+    fun add(string: String) = apply {
+        for (char in string) {
+            mix(char.code)
+            mix(char.code ushr 8)
+        }
+        // ends the string, so ("ab", "c") and ("a", "bc") differ
+        mix(0xFF)
+        mix(0xFF)
+    }
+
+    fun add(int: Int) = apply {
+        mix(int)
+        mix(int ushr 8)
+        mix(int ushr 16)
+        mix(int ushr 24)
+    }
+
+    private companion object {
+        const val OFFSET_BASIS = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+        const val PRIME = 0x100000001b3L
+    }
+}
@@ -0,0 +1,81 @@
+package xyz.regulad.supir.irdb
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * How long a transmit call takes on this device, measured by [TransmitProfiler] and fitted to a line:
+ * `overhead + blockingRatio * pattern duration`.
+ *
+ * A HAL that blocks until the pattern was sent has a ratio near 1, one that returns at once has a ratio near 0, and the
+ * overhead is what every call costs on top of that, in binder transactions and scheduling.
+ */
+class TransmitLatency(val samples: List<Sample>) {
+    /**
+     * One transmit call: a pattern of [duration] microseconds at [frequency] hertz took [latency] nanoseconds.
+     */
+    data class Sample(val frequency: Int, val duration: Int, val latency: Long)
+
+    /**
+     * The fixed cost of a call in nanoseconds.
+     */
+    val overhead: Long
+
+    /**
+     * How much of the pattern's duration a call blocks for.
+     */
+    val blockingRatio: Double
+
+    init {
+        require(samples.isNotEmpty()) { "No samples" }
+
+        // least squares over nanoseconds
+        val meanDuration = samples.sumOf { TimeUnit.MICROSECONDS.toNanos(it.duration.toLong()).toDouble() } / samples.size
+        val meanLatency = samples.sumOf { it.latency.toDouble() } / samples.size
+        var covariance = 0.0
+        var variance = 0.0
+        for (sample in samples) {
+            val duration = TimeUnit.MICROSECONDS.toNanos(sample.duration.toLong()) - meanDuration
+            covariance += duration * (sample.latency - meanLatency)
+            variance += duration * duration
+        }
+
+        blockingRatio = if (variance == 0.0) 0.0 else (covariance / variance).coerceAtLeast(0.0)
+        overhead = Math.round(meanLatency - blockingRatio * meanDuration).coerceAtLeast(0L)
+    }
+
+    val blocks: Boolean
+        get() = blockingRatio >= 0.5
+
+    val frequencies: List<Int>
+        get() = samples.map { it.frequency }.distinct().sorted()
+
+    /**
+     * The curve fitted to the samples at [frequency] alone, or null if there are none.
+     */
+    fun forFrequency(frequency: Int): TransmitLatency? =
+        samples.filter { it.frequency == frequency }.takeIf { it.isNotEmpty() }?.let { TransmitLatency(it) }
+
+    /**
+     * How long a call with a pattern of [duration] microseconds is expected to take, in nanoseconds.
+     */
+    fun predict(duration: Long): Long = overhead + (blockingRatio * TimeUnit.MICROSECONDS.toNanos(duration)).toLong()
+
+    /**
+     * How long in microseconds each call of a burst should be so the overhead is at most [MAX_OVERHEAD_PERCENT] of it,
+     * but no longer than [maxPatternDuration]. Shorter calls can be stopped sooner.
+     *
+     * A call always has room for at least one frame of [frameDuration] microseconds (if that fits in
+     * [maxPatternDuration]), even on a transmitter without any overhead.
+     */
+    fun burstDuration(frameDuration: Long, maxPatternDuration: Int): Int {
+        val duration = maxOf(TimeUnit.NANOSECONDS.toMicros(overhead * 100 / MAX_OVERHEAD_PERCENT), frameDuration)
+        return duration.coerceIn(0L, maxPatternDuration.toLong()).toInt()
+    }
+
+    override fun toString(): String =
+        "TransmitLatency(${overhead / 1000} us + ${"%.2f".format(blockingRatio)} x duration, ${samples.size} samples)"
+
+    companion object {
+        const val MAX_OVERHEAD_PERCENT = 5
+    }
+}
@@ -0,0 +1,87 @@
+package xyz.regulad.supir.irdb
+
+import com.obd.infrared.patterns.PatternAdapter
+import com.obd.infrared.transmit.Transmitter
+import xyz.regulad.supir.irdb.TransmitterManager.scheduler
+
+/**
+ * Measures how long transmit calls take on this device for patterns of different lengths and carrier frequencies.
+ *
+ * Every measurement really transmits, as background work on the transmitter's [TransmitScheduler], so presses still go
+ * first. A full run sends about 5 seconds of IR.
+ */
+object TransmitProfiler {
+    private val PROFILED_FREQUENCIES = intArrayOf(36_000, 38_000, 40_000, 56_000)
+
+    // microseconds, from a single short frame to a burst of a few
+    private val PROFILED_DURATIONS = intArrayOf(1_000, 10_000, 50_000, 100_000, 250_000)
+
+    private const val RUNS = 3
+
+    private const val MARK = 560
+    private const val SPACE = 1_690
+
+    /**
+     * A pattern of [duration] microseconds of NEC-like pulses, which no device should react to.
+     */
+    internal fun testPattern(duration: Int): IntArray {
+        val pulses = ArrayList<Int>()
+        var remaining = duration
+        while (remaining > 0) {
+            val pulse = minOf(if (pulses.size % 2 == 0) MARK else SPACE, remaining)
+            pulses += pulse
+            remaining -= pulse
+        }
+        if (pulses.size % 2 == 1) pulses += 1
+        return pulses.toIntArray()
+    }
+
+    /**
+     * The frequencies to profile: the common carriers [capabilities] supports, or the lowest one it does if none.
+     *
+     * @throws IllegalStateException if [capabilities] supports no frequency at all
+     */
+    internal fun frequencies(capabilities: CarrierCapabilities): List<Int> =
+        PROFILED_FREQUENCIES.filter { capabilities.supports(it) }.ifEmpty {
+            val lowest = capabilities.ranges.minOfOrNull { it.first }
+                ?: throw IllegalStateException("The transmitter supports no carrier frequency")
+            listOf(lowest)
+        }
+
+    /**
+     * Profiles [transmitter], reporting how much of it is done to [onProgress] as a fraction.
+     *
+     * @throws IllegalStateException if the transmitter was too busy to take a measurement, or supports no carrier
+     * frequency
+     * @throws Exception whatever the transmitter threw
+     */
+    suspend fun profile(
+        transmitter: Transmitter,
+        capabilities: CarrierCapabilities,
+        onProgress: (Float) -> Unit = {},
+    ): TransmitLatency {
+        val patternAdapter = PatternAdapter(transmitter.transmitterType)
+        val frequencies = frequencies(capabilities)
+        val steps = frequencies.size * PROFILED_DURATIONS.size
+        val samples = ArrayList<TransmitLatency.Sample>(steps)
+
+        for (frequency in frequencies) {
+            for (duration in PROFILED_DURATIONS) {
+                val transmitInfo = patternAdapter.createTransmitInfo(frequency, testPattern(duration))
+
+                // the median of a few runs, since a single call can be held up by anything else on the device
+                val latencies = LongArray(RUNS) {
+                    transmitter.scheduler.measure(transmitInfo).also {
+                        if (it == TransmitScheduler.NOT_SENT) throw IllegalStateException("Transmitter is busy")
+                    }
+                }
+                latencies.sort()
+                samples += TransmitLatency.Sample(frequency, duration, latencies[RUNS / 2])
+
+                onProgress(samples.size.toFloat() / steps)
+            }
+        }
+
+        return TransmitLatency(samples)
+    }
+}
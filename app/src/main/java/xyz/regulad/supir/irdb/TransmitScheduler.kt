@@ -0,0 +1,348 @@
+package xyz.regulad.supir.irdb
+
+import android.os.Process
+import android.util.Log
+import com.obd.infrared.transmit.TransmitInfo
+import com.obd.infrared.transmit.Transmitter
+import kotlinx.coroutines.CompletableDeferred
+import java.lang.ref.WeakReference
+import java.util.*
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.coroutines.cancellation.CancellationException
+
+/**
+ * Sends every frame for one [Transmitter] from a single thread it owns, highest [Priority] first.
+ *
+ * The queue is bounded: once [capacity] frames are waiting, a new frame evicts the lowest-priority one that is queued,
+ * or is refused if nothing queued ranks below it. A frame that is already queued at the same priority is not queued
+ * twice; sending it again just waits for the queued copy. Repeat frames that could not be sent before they went stale
+ * are dropped instead of being sent late.
+ *
+ * The transmission that is in progress always finishes, but a press never waits behind queued repeats or background
+ * work. A frame that nobody waits for anymore is not sent, even if it was already taken off the queue, so the most that
+ * goes out after a sender gives up is the frame that was in progress; [awaitQuiet] waits for that one.
+ *
+ * A frame can also be queued for a time on the [System.nanoTime] clock with [sendAt]. It is not sent before then, and
+ * nothing of lower priority is started while it waits, so the frame is not held up by one. Once the [latency] of the
+ * transmitter is known, such frames are started early by its overhead, so they go out when they are due instead of when
+ * the call was made. How late repeat and background frames actually start is kept in [metrics] as jitter; presses are
+ * only due when they are queued, so they are measured as waits instead.
+ *
+ * The scheduler only holds its transmitter weakly, so it can be kept alongside it without keeping it alive. Its thread
+ * runs until [close] is called.
+ */
+class TransmitScheduler(transmitter: Transmitter, private val capacity: Int = DEFAULT_CAPACITY) {
+    enum class Priority {
+        /**
+         * The first frame of a press, which the user is waiting on.
+         */
+        PRESS,
+
+        /**
+         * A repeat frame of a button that is being held, which is useless once it is late.
+         */
+        REPEAT,
+
+        /**
+         * Anything nobody is waiting on.
+         */
+        BACKGROUND,
+    }
+
+    /**
+     * A snapshot of what the scheduler has done since it was created. Times are in nanoseconds.
+     *
+     * Waits are measured from when a frame was queued or due, whichever is later. Jitter is how late frames other than
+     * presses queued with [sendAt] started after they were due, over [timed] of them.
+     */
+    data class Metrics(
+        val queueDepth: Int,
+        val sent: Long,
+        val coalesced: Long,
+        val droppedStale: Long,
+        val rejected: Long,
+        val lastWait: Long,
+        val maxWait: Long,
+        val timed: Long,
+        val lastJitter: Long,
+        val meanJitter: Long,
+        val maxJitter: Long,
+    )
+
+    private class Request(
+        val frame: TransmitInfo,
+        val priority: Priority,
+        val sequence: Long,
+        val enqueuedAt: Long,
+        val dueAt: Long,
+        // queued with sendAt, so it is started early by the transmitter's overhead
+        val isScheduled: Boolean,
+        // sending the same frame at the same priority again waits for this one instead
+        val canCoalesce: Boolean,
+        val staleAfter: Long,
+    ) {
+        // how late a scheduled repeat or background frame starts is jitter; a press is measured as a wait
+        val isTimed: Boolean
+            get() = isScheduled && priority != Priority.PRESS
+
+        // when the frame started to go out, or NOT_SENT
+        val result = CompletableDeferred<Long>()
+        var finishedAt = NOT_SENT
+        var waiters = 1
+    }
+
+    private val transmitter = WeakReference(transmitter)
+
+    private val lock = ReentrantLock()
+    private val queued = lock.newCondition()
+    private val queue = PriorityQueue<Request>(capacity, compareBy<Request>({ it.priority }, { it.dueAt }, { it.sequence }))
+    private var nextSequence = 0L
+    private var worker: Thread? = null
+    private var inFlight: Request? = null
+    private var isClosed = false
+
+    /**
+     * How long transmit calls take on this device, if it was profiled.
+     */
+    @Volatile
+    var latency: TransmitLatency? = null
+    private var quietSince = 0L
+
+    private var sent = 0L
+    private var coalesced = 0L
+    private var droppedStale = 0L
+    private var rejected = 0L
+    private var lastWait = 0L
+    private var maxWait = 0L
+    private var timed = 0L
+    private var lastJitter = 0L
+    private var totalJitter = 0L
+    private var maxJitter = 0L
+
+    val metrics: Metrics
+        get() = lock.withLock {
+            Metrics(
+                queue.size, sent, coalesced, droppedStale, rejected, lastWait, maxWait,
+                timed, lastJitter, if (timed == 0L) 0L else totalJitter / timed, maxJitter,
+            )
+        }
+
+    private fun startWorker() {
+        if (worker != null) return
+        worker = Thread({
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY)
+            try {
+                while (sendNext()) Unit
+            } catch (e: InterruptedException) {
+                // closed while waiting for a frame
+            }
+        }, "Transmit").apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    /**
+     * Waits for the next frame that is due and sends it.
+     *
+     * @return false once the scheduler was closed
+     */
+    private fun sendNext(): Boolean {
+        val request = lock.withLock {
+            while (true) {
+                if (isClosed) return false
+                val head = queue.peek()
+                if (head == null) {
+                    queued.await()
+                    continue
+                }
+                // a frame that is queued meanwhile wakes this up, in case it is due sooner
+                val untilDue = head.dueAt - leadTime(head) - System.nanoTime()
+                if (untilDue <= 0) break
+                queued.awaitNanos(untilDue)
+            }
+            queue.poll()!!.also { inFlight = it }
+        }
+
+        try {
+            transmit(request)
+        } finally {
+            lock.withLock { inFlight = null }
+        }
+        return true
+    }
+
+    private fun transmit(request: Request) {
+        val startedAt = System.nanoTime()
+        val wait = startedAt - maxOf(request.enqueuedAt, request.dueAt)
+        if (wait > request.staleAfter) {
+            lock.withLock { droppedStale++ }
+            request.result.complete(NOT_SENT)
+            return
+        }
+
+        lock.withLock {
+            // cancelled between being taken off the queue and now
+            if (request.waiters == 0) {
+                request.result.complete(NOT_SENT)
+                return
+            }
+            lastWait = wait
+            maxWait = maxOf(maxWait, lastWait)
+            if (request.isTimed) {
+                timed++
+                lastJitter = startedAt + leadTime(request) - request.dueAt
+                totalJitter += lastJitter
+                maxJitter = maxOf(maxJitter, lastJitter)
+            }
+        }
+
+        val transmitter = transmitter.get()
+        if (transmitter == null) {
+            request.result.complete(NOT_SENT)
+            return
+        }
+
+        try {
+            // only this thread ever transmits on this transmitter, so there is nothing to lock
+            transmitter.transmit(request.frame)
+            lock.withLock {
+                sent++
+                quietSince = System.nanoTime()
+                request.finishedAt = quietSince
+            }
+            request.result.complete(startedAt)
+        } catch (e: Exception) {
+            lock.withLock { quietSince = System.nanoTime() }
+            Log.e(TAG, "Failed to transmit", e)
+            request.result.completeExceptionally(e)
+        }
+    }
+
+    /**
+     * Queues [frame] and waits until it was sent.
+     *
+     * @param staleAfter how long in nanoseconds the frame is still worth sending after it was queued
+     * @return true if the frame was sent, or false if it was refused, evicted, or went stale
+     * @throws Exception whatever the transmitter threw
+     */
+    suspend fun send(frame: TransmitInfo, priority: Priority, staleAfter: Long = Long.MAX_VALUE): Boolean =
+        (enqueue(frame, priority, null, staleAfter)?.result?.await() ?: NOT_SENT) != NOT_SENT
+
+    /**
+     * Queues [frame] to be sent no earlier than [dueAt] and waits until it was sent. A frame that is due in the past is
+     * sent as soon as possible. Frames queued this way are not coalesced, since each one is due at its own time, except
+     * for a press that is already due, which waits for the same press if that is queued and due too.
+     *
+     * @param dueAt when to send the frame on the [System.nanoTime] clock
+     * @param staleAfter how long in nanoseconds the frame is still worth sending after it was due
+     * @return when the frame started to go out on the [System.nanoTime] clock, or [NOT_SENT] if it was refused,
+     * evicted, or went stale
+     * @throws Exception whatever the transmitter threw
+     */
+    suspend fun sendAt(frame: TransmitInfo, priority: Priority, dueAt: Long, staleAfter: Long = Long.MAX_VALUE): Long =
+        enqueue(frame, priority, dueAt, staleAfter)?.result?.await() ?: NOT_SENT
+
+    /**
+     * Sends [frame] as background work and measures the transmit call.
+     *
+     * @return how long the call took in nanoseconds, or [NOT_SENT] if it was refused or evicted
+     * @throws Exception whatever the transmitter threw
+     */
+    suspend fun measure(frame: TransmitInfo): Long {
+        val request = enqueue(frame, Priority.BACKGROUND, null, Long.MAX_VALUE) ?: return NOT_SENT
+        val startedAt = request.result.await()
+        return if (startedAt == NOT_SENT) NOT_SENT else request.finishedAt - startedAt
+    }
+
+    private fun leadTime(request: Request): Long = if (request.isScheduled) latency?.overhead ?: 0L else 0L
+
+    /**
+     * Queues a request and waits until it was handled.
+     *
+     * @return the request, whose result is complete, or null if it was refused
+     * @throws IllegalStateException if the scheduler was closed
+     */
+    private suspend fun enqueue(frame: TransmitInfo, priority: Priority, dueAt: Long?, staleAfter: Long): Request? {
+        val request = lock.withLock {
+            check(!isClosed) { "Transmit scheduler was closed" }
+            startWorker()
+
+            val now = System.nanoTime()
+            // rapid taps of one button are a single press
+            val canCoalesce = dueAt == null || priority == Priority.PRESS && dueAt <= now
+            if (canCoalesce) {
+                queue.find { it.canCoalesce && it.frame === frame && it.priority == priority }?.let {
+                    coalesced++
+                    it.waiters++
+                    return@withLock it
+                }
+            }
+
+            if (queue.size >= capacity) {
+                val lowest = queue.maxWithOrNull(queue.comparator())!!
+                if (lowest.priority <= priority) {
+                    rejected++
+                    return null
+                }
+                queue.remove(lowest)
+                rejected++
+                lowest.result.complete(NOT_SENT)
+            }
+
+            Request(frame, priority, nextSequence++, now, dueAt ?: now, dueAt != null, canCoalesce, staleAfter).also {
+                queue.add(it)
+                queued.signal()
+            }
+        }
+
+        try {
+            request.result.join()
+            return request
+        } catch (e: CancellationException) {
+            // nobody is waiting for it anymore, so it does not have to be sent
+            lock.withLock {
+                if (--request.waiters == 0) queue.remove(request)
+            }
+            throw e
+        }
+    }
+
+    /**
+     * Waits for the frame that is going out right now, if there is one, to finish.
+     *
+     * @return when the transmitter last finished sending, on the [System.nanoTime] clock, or 0 if it never sent
+     */
+    suspend fun awaitQuiet(): Long {
+        lock.withLock { inFlight }?.result?.join()
+        return lock.withLock { quietSince }
+    }
+
+    /**
+     * Interrupts the thread of this scheduler, which stops it, and fails every frame that is still queued with an
+     * [IllegalStateException]. A frame that is going out right now is cut short if the transmitter stops on interrupts.
+     * Sending anything after this throws.
+     */
+    fun close() {
+        val closed = lock.withLock {
+            if (isClosed) return
+            isClosed = true
+            worker?.interrupt()
+            worker = null
+            ArrayList(queue).also { queue.clear() }
+        }
+        closed.forEach { it.result.completeExceptionally(IllegalStateException("Transmit scheduler was closed")) }
+    }
+
+    companion object {
+        private const val TAG = "TransmitScheduler"
+
+        const val DEFAULT_CAPACITY = 16
+
+        /**
+         * What [sendAt] returns for a frame that was not sent.
+         */
+        const val NOT_SENT = Long.MIN_VALUE
+    }
+}
@@ -0,0 +1,161 @@
+package xyz.regulad.supir.irdb
+
+import android.content.Context
+import android.os.Build
+import android.util.Log
+import com.obd.infrared.detection.InfraRedDetector
+import com.obd.infrared.transmit.Transmitter
+import com.obd.infrared.transmit.TransmitterType
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+
+/**
+ * What detection found out about this device's IR hardware, saved so later starts can skip detecting it again.
+ *
+ * Detecting scans every installed package and fires a test pattern, so it is only done once per [Build.FINGERPRINT];
+ * a system update or a restored backup from another device detects again.
+ */
+class TransmitterProfile(
+    val fingerprint: String,
+    /**
+     * The detected type, or null if the device has no IR hardware this app knows about.
+     */
+    val transmitterType: TransmitterType?,
+    val carrierCapabilities: CarrierCapabilities,
+    /**
+     * The longest total duration of a single pattern in microseconds. Android does not report this, so it is the
+     * 2 second limit [android.hardware.ConsumerIrManager.transmit] documents.
+     */
+    val maxPatternDuration: Int,
+    /**
+     * How long transmit calls take, or null if the transmitter was never profiled with [TransmitProfiler].
+     */
+    val transmitLatency: TransmitLatency? = null,
+) {
+    /**
+     * Creates the transmitter this profile describes, or null if there is none.
+     */
+    fun createTransmitter(context: Context): Transmitter? = Transmitter.getTransmitterForType(context, transmitterType)
+
+    fun withTransmitLatency(transmitLatency: TransmitLatency) =
+        TransmitterProfile(fingerprint, transmitterType, carrierCapabilities, maxPatternDuration, transmitLatency)
+
+    override fun toString(): String =
+        "TransmitterProfile($fingerprint, $transmitterType, $carrierCapabilities, max $maxPatternDuration us, $transmitLatency)"
+
+    companion object {
+        private const val TAG = "TransmitterProfile"
+
+        private const val PROFILE_FILE = "transmitter_profile.bin"
+        private const val PROFILE_MAGIC = 0x53545052 // "STPR"
+        private const val PROFILE_VERSION = 3
+
+        // written instead of a range count when the device could not be asked for its ranges
+        private const val UNRESTRICTED_RANGES = -1
+
+        const val DEFAULT_MAX_PATTERN_DURATION = 2_000_000
+
+        @Volatile
+        private var current: TransmitterProfile? = null
+
+        private fun profileFile(context: Context) = File(context.noBackupFilesDir, PROFILE_FILE)
+
+        private fun read(file: File): TransmitterProfile? = try {
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                if (input.readInt() != PROFILE_MAGIC) return null
+                // version 1 is version 2 without the latency samples; both wrote no ranges for an unrestricted device
+                val version = input.readInt()
+                if (version !in 1..PROFILE_VERSION) return null
+
+                val fingerprint = input.readUTF()
+                val transmitterType = input.readUTF().takeIf { it.isNotEmpty() }?.let { TransmitterType.valueOf(it) }
+                val rangeCount = input.readInt()
+                // an older profile without ranges may have been either, so detect again
+                if (rangeCount == 0 && version < PROFILE_VERSION) return null
+                val ranges = List(maxOf(0, rangeCount)) { input.readInt()..input.readInt() }
+                val maxPatternDuration = input.readInt()
+                val samples = if (version == 1) emptyList() else List(input.readInt()) {
+                    TransmitLatency.Sample(input.readInt(), input.readInt(), input.readLong())
+                }
+
+                val capabilities = if (rangeCount == UNRESTRICTED_RANGES) {
+                    CarrierCapabilities.UNRESTRICTED
+                } else {
+                    CarrierCapabilities.of(ranges)
+                }
+                val transmitLatency = samples.takeIf { it.isNotEmpty() }?.let { TransmitLatency(it) }
+                TransmitterProfile(fingerprint, transmitterType, capabilities, maxPatternDuration, transmitLatency)
+            }
+        } catch (e: IOException) {
+            null
+        } catch (e: IllegalArgumentException) {
+            // a transmitter type that no longer exists
+            null
+        }
+
+        private fun write(file: File, profile: TransmitterProfile) {
+            val temporaryFile = File(file.parentFile, "${file.name}.tmp")
+            try {
+                DataOutputStream(temporaryFile.outputStream().buffered()).use { output ->
+                    output.writeInt(PROFILE_MAGIC)
+                    output.writeInt(PROFILE_VERSION)
+                    output.writeUTF(profile.fingerprint)
+                    output.writeUTF(profile.transmitterType?.name ?: "")
+                    val ranges = profile.carrierCapabilities.ranges
+                    output.writeInt(if (profile.carrierCapabilities.isUnrestricted) UNRESTRICTED_RANGES else ranges.size)
+                    for (range in ranges) {
+                        output.writeInt(range.first)
+                        output.writeInt(range.last)
+                    }
+                    output.writeInt(profile.maxPatternDuration)
+                    val samples = profile.transmitLatency?.samples ?: emptyList()
+                    output.writeInt(samples.size)
+                    for (sample in samples) {
+                        output.writeInt(sample.frequency)
+                        output.writeInt(sample.duration)
+                        output.writeLong(sample.latency)
+                    }
+                }
+                if (!temporaryFile.renameTo(file)) throw IOException("Could not replace $file")
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to save the transmitter profile", e)
+                temporaryFile.delete()
+            }
+        }
+
+        private fun detect(context: Context): TransmitterProfile = TransmitterProfile(
+            Build.FINGERPRINT,
+            InfraRedDetector(context).detect(),
+            CarrierCapabilities.query(context),
+            DEFAULT_MAX_PATTERN_DURATION,
+        )
+
+        /**
+         * The profile of this device, restored from disk or detected and saved if there is none for this build.
+         *
+         * This blocks, and detecting can take a while, so call it off the main thread. The profile is kept for the life
+         * of the process after the first call.
+         */
+        fun current(context: Context): TransmitterProfile = current ?: synchronized(this) {
+            current ?: run {
+                val file = profileFile(context)
+                read(file)?.takeIf { it.fingerprint == Build.FINGERPRINT }?.also {
+                    Log.d(TAG, "Restored $it")
+                } ?: detect(context).also {
+                    Log.d(TAG, "Detected $it")
+                    write(file, it)
+                }
+            }.also { current = it }
+        }
+
+        /**
+         * Replaces the profile of this device, on disk and for the rest of the process.
+         */
+        fun update(context: Context, profile: TransmitterProfile) = synchronized(this) {
+            write(profileFile(context), profile)
+            current = profile
+        }
+    }
+}
@@ -29,12 +29,11 @@ import androidx.navigation.compose.composable
 import androidx.navigation.toRoute
 import kotlinx.coroutines.*
 import kotlinx.serialization.Serializable
-import xyz.regulad.regulib.compose.firstState
-import xyz.regulad.regulib.compose.produceState
 import xyz.regulad.regulib.showToast
 import xyz.regulad.supir.SupIRViewModel
 import xyz.regulad.supir.irdb.*
-import xyz.regulad.supir.irdb.IrEncoder.getIrpProcessor
+import xyz.regulad.supir.irdb.TransmitterManager.scheduler
+import java.io.File
 
 @Composable
 fun FullscreenLoader() {
@@ -52,6 +51,28 @@ fun FullscreenLoader() {
     }
 }
 
+@Composable
+fun FullscreenMessage(message: String) {
+    Box(
+        modifier = Modifier.fillMaxSize(),
+        contentAlignment = Alignment.Center
+    ) {
+        Text(message, modifier = Modifier.padding(16.dp))
+    }
+}
+
+/**
+ * Stands in for a catalog lookup that has no value to show: a loader while it is loading, and a message otherwise.
+ */
+@Composable
+fun LookupPlaceholder(lookup: Lookup<*>, absentMessage: String) {
+    when (lookup) {
+        Lookup.Loading, is Lookup.Found -> FullscreenLoader()
+        Lookup.Absent -> FullscreenMessage(absentMessage)
+        is Lookup.Failed -> FullscreenMessage("Failed to load the code database: ${lookup.cause.message}")
+    }
+}
+
 interface RouteWithTopBar {
     val topBarTitle: String
 }
@@ -87,18 +108,46 @@ data class CategoryRoute(val brandName: String, val categoryName: String) : Rout
 }
 
 @Serializable
-data class ModelRoute(val brandName: String, val categoryName: String, val modelIdentifier: String) : RouteWithTopBar {
+data class ModelRoute(val modelId: Long) : RouteWithTopBar {
     override val topBarTitle: String
         get() = "Select command"
 }
 
 @Serializable
-data class FunctionRoute(
-    val brandName: String,
-    val categoryName: String,
-    val modelIdentifier: String,
-    val functionIdentifier: String
-)
+data class FunctionRoute(val modelId: Long, val functionId: Long)
+
+@Serializable
+data object DiagnosticsRoute : RouteWithTopBar {
+    override val topBarTitle: String
+        get() = "Diagnostics"
+}
+
+@Composable
+private fun DiagnosticsItem(label: String, value: String) {
+    ListItem(
+        headlineContent = { Text(label) },
+        trailingContent = { Text(value) }
+    )
+}
+
+@Composable
+private fun DiagnosticsHeader(title: String) {
+    Text(
+        title,
+        style = MaterialTheme.typography.titleMedium,
+        color = MaterialTheme.colorScheme.primary,
+        modifier = Modifier.padding(start = 16.dp, top = 16.dp, end = 16.dp)
+    )
+}
+
+private const val DEFAULT_BURST_REPEATS = 5
+
+// about 6 seconds of a typical 108 ms frame
+private const val MAX_BURST_REPEATS = 60
+
+private fun repeatsLabel(repeats: Int): String = if (repeats == 1) "1 repeat" else "$repeats repeats"
+
+private fun Long.formatNanos(): String = "%.2f ms".format(this / 1_000_000.0)
 
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
@@ -107,7 +156,14 @@ fun SupIRNavHost(
     navController: NavHostController,
     supIRViewModel: SupIRViewModel
 ) {
-    val favoriteBrandModels by supIRViewModel.favoriteBrandModels.collectAsState()
+    val favoriteModels by supIRViewModel.favoriteModels.collectAsState()
+
+    // the start destination depends on the transmitter, so nothing is shown until it is known
+    val transmitterProfile by supIRViewModel.transmitterProfile.collectAsState()
+    if (transmitterProfile == null) {
+        FullscreenLoader()
+        return
+    }
 
     NavHost(
         navController = navController,
@@ -126,32 +182,25 @@ fun SupIRNavHost(
             }
         }
         composable<MainRoute> {
-            fun navigateToBrand(brand: SBrand) {
-                if (brand.categories.size > 1) {
-                    navController.navigate(
-                        route = BrandRoute(
-                            brandName = brand.name,
-                        )
-                    )
-                } else {
-                    navController.navigate(
-                        route = CategoryRoute(
-                            brandName = brand.name,
-                            categoryName = brand.categories.first().name // guaranteed to have at least one
-                        )
+            fun navigateToBrand(brandName: String) {
+                navController.navigate(
+                    route = BrandRoute(
+                        brandName = brandName,
                     )
-                }
+                )
             }
 
-            val (items, flowFinished) = supIRViewModel.allBrandsFlow.produceState()
+            // only the brand names are needed here; nothing below a brand is loaded until it is opened
+            val brandNames by supIRViewModel.catalog.brandNames.collectAsState()
+            val items = brandNames.valueOrNull
             val lazyColumnState = rememberLazyListState()
 
-            if (items.isEmpty()) {
-                FullscreenLoader()
+            if (items == null) {
+                LookupPlaceholder(brandNames, "The code database has no brands.")
             } else {
                 var expanded by remember { mutableStateOf(false) }
                 var query by remember { mutableStateOf("") }
-                val filteredItems = items.filter { it.name.contains(query, ignoreCase = true) }
+                val filteredItems = items.filter { it.contains(query, ignoreCase = true) }
 
                 val context = LocalContext.current
 
@@ -200,47 +249,30 @@ fun SupIRNavHost(
                         LazyColumn(
                             state = previewLazyColumnState
                         ) {
-                            items(filteredItems) { brand ->
+                            items(filteredItems) { brandName ->
                                 Surface(onClick = {
-                                    navigateToBrand(brand)
+                                    navigateToBrand(brandName)
                                 }) {
                                     Column {
                                         ListItem(
-                                            headlineContent = { Text(brand.name) }
+                                            headlineContent = { Text(brandName) }
                                         )
                                         HorizontalDivider()
                                     }
                                 }
                             }
 
-                            if (!flowFinished) {
+                            if (filteredItems.isEmpty()) {
                                 item {
                                     Column(
                                         modifier = Modifier.fillMaxWidth(),
+                                        horizontalAlignment = Alignment.CenterHorizontally
                                     ) {
                                         Spacer(modifier = Modifier.height(16.dp))
-                                        CircularProgressIndicator(
-                                            modifier = Modifier
-                                                .width(64.dp)
-                                                .height(64.dp)
-                                                .align(Alignment.CenterHorizontally),
-                                        )
+                                        Text("No brands found matching \"$query\"")
                                         Spacer(modifier = Modifier.height(16.dp))
                                     }
                                 }
-                            } else {
-                                if (filteredItems.isEmpty()) {
-                                    item {
-                                        Column(
-                                            modifier = Modifier.fillMaxWidth(),
-                                            horizontalAlignment = Alignment.CenterHorizontally
-                                        ) {
-                                            Spacer(modifier = Modifier.height(16.dp))
-                                            Text("No brands found matching \"$query\"")
-                                            Spacer(modifier = Modifier.height(16.dp))
-                                        }
-                                    }
-                                }
                             }
                         }
                     }
@@ -248,36 +280,18 @@ fun SupIRNavHost(
                     Spacer(modifier = Modifier.height(8.dp))
 
                     LazyColumn(state = lazyColumnState) {
-                        items(items) { brand ->
+                        items(items) { brandName ->
                             Surface(onClick = {
-                                navigateToBrand(brand)
+                                navigateToBrand(brandName)
                             }) {
                                 Column {
                                     ListItem(
-                                        headlineContent = { Text(brand.name) }
+                                        headlineContent = { Text(brandName) }
                                     )
                                     HorizontalDivider()
                                 }
                             }
                         }
-
-                        if (!flowFinished) {
-                            item {
-                                Column(
-                                    modifier = Modifier.fillMaxWidth(),
-                                ) {
-                                    Spacer(modifier = Modifier.height(16.dp))
-                                    CircularProgressIndicator(
-                                        modifier = Modifier
-                                            .width(64.dp)
-                                            .height(64.dp)
-                                            .align(Alignment.CenterHorizontally),
-                                    )
-                                    Spacer(modifier = Modifier.height(16.dp))
-                                    HorizontalDivider()
-                                }
-                            }
-                        }
                     }
                 }
             }
@@ -285,31 +299,54 @@ fun SupIRNavHost(
         composable<BrandRoute> { backStackEntry ->
             val brandRoute: BrandRoute = backStackEntry.toRoute()
 
-            val brand = supIRViewModel.allBrandsFlow.firstState { it.name == brandRoute.brandName }
+            val categoryLookup by remember(brandRoute) {
+                supIRViewModel.catalog.categoryNames(brandRoute.brandName)
+            }.collectAsState()
+            val categoryNames = categoryLookup.valueOrNull
 
-            fun navigateToCategory(category: SCategory) {
+            fun navigateToCategory(categoryName: String, skipBrand: Boolean = false) {
                 navController.navigate(
                     route = CategoryRoute(
-                        brandName = brand!!.name,
-                        categoryName = category.name
+                        brandName = brandRoute.brandName,
+                        categoryName = categoryName
                     )
-                )
+                ) {
+                    if (skipBrand) {
+                        // nothing to choose from, so back should not land here again
+                        popUpTo(brandRoute) { inclusive = true }
+                    }
+                }
             }
 
-            if (brand == null) {
+            if (categoryNames == null) {
+                LookupPlaceholder(categoryLookup, "${brandRoute.brandName} is not in the code database.")
+            } else if (categoryNames.isEmpty()) {
+                Box(
+                    modifier = Modifier.fillMaxSize(),
+                    contentAlignment = Alignment.Center
+                ) {
+                    Text(
+                        "None of ${brandRoute.brandName}'s devices can be controlled from this phone.",
+                        modifier = Modifier.padding(16.dp)
+                    )
+                }
+            } else if (categoryNames.size == 1) {
+                LaunchedEffect(categoryNames) {
+                    navigateToCategory(categoryNames.first(), skipBrand = true)
+                }
                 FullscreenLoader()
             } else {
                 val lazyColumnState = rememberLazyListState()
                 LazyColumn(
                     state = lazyColumnState
                 ) {
-                    items(brand.categories) { category ->
+                    items(categoryNames) { categoryName ->
                         Surface(onClick = {
-                            navigateToCategory(category)
+                            navigateToCategory(categoryName)
                         }) {
                             Column {
                                 ListItem(
-                                    headlineContent = { Text(category.name) }
+                                    headlineContent = { Text(categoryName) }
                                 )
                                 HorizontalDivider()
                             }
@@ -319,7 +356,7 @@ fun SupIRNavHost(
             }
         }
         composable<FavoritesRoute> {
-            if (favoriteBrandModels.isEmpty()) {
+            if (favoriteModels.isEmpty()) {
                 Box(
                     modifier = Modifier.fillMaxSize(),
                     contentAlignment = Alignment.Center
@@ -330,26 +367,21 @@ fun SupIRNavHost(
                     )
                 }
             } else {
-                val favoriteBrandModelsTriples = favoriteBrandModels.map { brandModelCoordinate ->
-                    val list = brandModelCoordinate.split("//")
-                    Triple(list[0], list[1], list[2])
-                }
+                val favoriteModelIds = favoriteModels.toList()
 
                 val lazyColumnState = rememberLazyListState()
                 LazyColumn(
                     state = lazyColumnState
                 ) {
-                    items(favoriteBrandModelsTriples) { brandModelCoordinate ->
-                        val (brand, category, modelIdentifier) = brandModelCoordinate
+                    items(favoriteModelIds, key = { it }) { modelId ->
+                        // favorites that are still loading, or no longer in the catalog, are left out
+                        val model = remember(modelId) {
+                            supIRViewModel.catalog.model(modelId)
+                        }.collectAsState().value.valueOrNull ?: return@items
+                        val (brand, category, modelIdentifier) = model
 
                         Surface(onClick = {
-                            navController.navigate(
-                                route = ModelRoute(
-                                    brandName = brand,
-                                    categoryName = category,
-                                    modelIdentifier = modelIdentifier
-                                )
-                            )
+                            navController.navigate(route = ModelRoute(modelId = modelId))
                         }) {
                             Column {
                                 ListItem(
@@ -373,33 +405,33 @@ fun SupIRNavHost(
         composable<CategoryRoute> { backStackEntry ->
             val categoryRoute: CategoryRoute = backStackEntry.toRoute()
 
-            val brand = supIRViewModel.allBrandsFlow.firstState { it.name == categoryRoute.brandName }
-            val category = brand?.categories?.find { it.name == categoryRoute.categoryName }
+            val brandName = categoryRoute.brandName
+            val categoryName = categoryRoute.categoryName
+            val modelLookup by remember(categoryRoute) {
+                supIRViewModel.catalog.modelIdentifiers(brandName, categoryName)
+            }.collectAsState()
+            val modelIdentifiers = modelLookup.valueOrNull
 
-            fun navigateToModel(model: SModel) {
-                navController.navigate(
-                    route = ModelRoute(
-                        brandName = brand!!.name,
-                        categoryName = category!!.name,
-                        modelIdentifier = model.identifier
-                    )
-                )
+            fun navigateToModel(modelId: Long) {
+                navController.navigate(route = ModelRoute(modelId = modelId))
             }
 
-            if (category == null) {
-                FullscreenLoader()
+            if (modelIdentifiers == null) {
+                LookupPlaceholder(modelLookup, "$brandName $categoryName is not in the code database.")
             } else {
                 val lazyColumnState = rememberLazyListState()
 
                 LazyColumn(
                     state = lazyColumnState
                 ) {
-                    items(category.models) { model ->
-                        val brandModelCoordinate = "${brand.name}//${category.name}//${model.identifier}"
-                        val isFavorite = favoriteBrandModels.contains(brandModelCoordinate)
+                    items(modelIdentifiers) { modelIdentifier ->
+                        val modelId = remember(categoryRoute, modelIdentifier) {
+                            ModelCoordinate(brandName, categoryName, modelIdentifier).id
+                        }
+                        val isFavorite = modelId in favoriteModels
 
                         Surface(onClick = {
-                            navigateToModel(model)
+                            navigateToModel(modelId)
                         }) {
                             Column {
                                 ListItem(
@@ -410,16 +442,13 @@ fun SupIRNavHost(
                                             modifier = Modifier.size(40.dp)
                                         )
                                     },
-                                    headlineContent = { Text("${brand.name} ${category.name}") },
-                                    supportingContent = { Text(model.identifier) },
+                                    headlineContent = { Text("$brandName $categoryName") },
+                                    supportingContent = { Text(modelIdentifier) },
                                     trailingContent = {
                                         Surface(
                                             shape = CircleShape,
                                             onClick = {
-                                                supIRViewModel.setBrandModelFavorite(
-                                                    brandModelCoordinate,
-                                                    !isFavorite
-                                                )
+                                                supIRViewModel.setModelFavorite(modelId, !isFavorite)
                                             },
                                             modifier = Modifier.size(40.dp)
                                         ) {
@@ -450,30 +479,29 @@ fun SupIRNavHost(
         composable<ModelRoute> { backStackEntry ->
             val modelRoute: ModelRoute = backStackEntry.toRoute()
 
-            val brand = supIRViewModel.allBrandsFlow.firstState { it.name == modelRoute.brandName }
-            val category = brand?.categories?.find { it.name == modelRoute.categoryName }
-            val model = category?.models?.find { it.identifier == modelRoute.modelIdentifier }
+            val functionLookup by remember(modelRoute) {
+                supIRViewModel.catalog.functions(modelRoute.modelId)
+            }.collectAsState()
+            val functions = functionLookup.valueOrNull
+
+            // encode every button before it is pressed; leaving the screen cancels this
+            LaunchedEffect(functions) {
+                functions?.let { supIRViewModel.warmUp(it) }
+            }
 
             fun navigateToFunction(function: IRDBFunction) {
-                navController.navigate(
-                    FunctionRoute(
-                        brand!!.name,
-                        category!!.name,
-                        model!!.identifier,
-                        function.identifier
-                    )
-                )
+                navController.navigate(FunctionRoute(modelRoute.modelId, function.id))
             }
 
-            if (model == null) {
-                FullscreenLoader()
+            if (functions == null) {
+                LookupPlaceholder(functionLookup, "This device is no longer in the code database.")
             } else {
                 val lazyColumnState = rememberLazyListState()
 
                 LazyColumn(
                     state = lazyColumnState
                 ) {
-                    items(model.functions.toList()) { function ->
+                    items(functions) { function ->
                         Surface(
                             onClick = {
                                 navigateToFunction(function)
@@ -488,22 +516,182 @@ fun SupIRNavHost(
                 }
             }
         }
+        composable<DiagnosticsRoute> {
+            val profile = transmitterProfile!!
+            val transmitter = supIRViewModel.transmitter
+            val transmitLatency = profile.transmitLatency
+
+            val metrics by produceState<TransmitScheduler.Metrics?>(null, transmitter) {
+                while (transmitter != null) {
+                    value = transmitter.scheduler.metrics
+                    delay(1000)
+                }
+            }
+
+            var profilingProgress by remember { mutableStateOf<Float?>(null) }
+            val profilingScope = rememberCoroutineScope()
+            val context = LocalContext.current
+
+            LazyColumn {
+                item {
+                    DiagnosticsHeader("Transmitter")
+                    DiagnosticsItem("Type", profile.transmitterType?.name ?: "None")
+                    DiagnosticsItem(
+                        "Carrier frequencies",
+                        if (profile.carrierCapabilities.isUnrestricted) {
+                            "Any"
+                        } else if (profile.carrierCapabilities.ranges.isEmpty()) {
+                            "None"
+                        } else {
+                            profile.carrierCapabilities.ranges.joinToString { "${it.first}-${it.last} Hz" }
+                        }
+                    )
+                    DiagnosticsItem("Longest pattern", "${profile.maxPatternDuration / 1000} ms")
+                    HorizontalDivider()
+
+                    DiagnosticsHeader("Transmit latency")
+                    if (transmitLatency == null) {
+                        ListItem(headlineContent = { Text("Not profiled yet.") })
+                    } else {
+                        DiagnosticsItem("Overhead per call", transmitLatency.overhead.formatNanos())
+                        DiagnosticsItem(
+                            "Blocks for",
+                            "%.0f%% of the pattern".format(transmitLatency.blockingRatio * 100)
+                        )
+                    }
+                }
+
+                if (transmitLatency != null) {
+                    items(transmitLatency.frequencies) { frequency ->
+                        val curve = transmitLatency.forFrequency(frequency)!!
+                        ListItem(
+                            headlineContent = { Text("${frequency / 1000} kHz") },
+                            trailingContent = {
+                                Text("${curve.overhead.formatNanos()} + %.0f%%".format(curve.blockingRatio * 100))
+                            },
+                            supportingContent = {
+                                Text(transmitLatency.samples.filter { it.frequency == frequency }.joinToString("\n") {
+                                    "${it.duration / 1000.0} ms pattern: ${it.latency.formatNanos()}"
+                                })
+                            }
+                        )
+                    }
+                }
+
+                item {
+                    val progress = profilingProgress
+                    if (progress != null) {
+                        LinearProgressIndicator(
+                            progress = { progress },
+                            modifier = Modifier
+                                .fillMaxWidth()
+                                .padding(16.dp)
+                        )
+                    }
+                    Button(
+                        enabled = transmitter != null && progress == null,
+                        onClick = {
+                            profilingScope.launch {
+                                profilingProgress = 0f
+                                try {
+                                    supIRViewModel.profileTransmitter { profilingProgress = it }
+                                } catch (e: CancellationException) {
+                                    throw e
+                                } catch (e: Exception) {
+                                    context.showToast("Failed to profile the transmitter: ${e.message}")
+                                } finally {
+                                    profilingProgress = null
+                                }
+                            }
+                        },
+                        modifier = Modifier.padding(16.dp)
+                    ) {
+                        Text(if (transmitLatency == null) "Profile transmitter" else "Profile again")
+                    }
+                    HorizontalDivider()
+                }
+
+                val schedulerMetrics = metrics
+                if (schedulerMetrics != null) {
+                    item {
+                        DiagnosticsHeader("Scheduler")
+                        DiagnosticsItem("Frames sent", schedulerMetrics.sent.toString())
+                        DiagnosticsItem("Queued", schedulerMetrics.queueDepth.toString())
+                        DiagnosticsItem("Coalesced", schedulerMetrics.coalesced.toString())
+                        DiagnosticsItem("Dropped as stale", schedulerMetrics.droppedStale.toString())
+                        DiagnosticsItem("Refused", schedulerMetrics.rejected.toString())
+                        DiagnosticsItem("Longest wait", schedulerMetrics.maxWait.formatNanos())
+                        DiagnosticsItem("Mean jitter", schedulerMetrics.meanJitter.formatNanos())
+                        DiagnosticsItem("Worst jitter", schedulerMetrics.maxJitter.formatNanos())
+                        HorizontalDivider()
+                    }
+                }
+
+                if (supIRViewModel.isDebuggable) {
+                    item {
+                        var useLoopbackTransmitter by remember {
+                            mutableStateOf(supIRViewModel.preferencesRepository.useLoopbackTransmitter)
+                        }
+
+                        DiagnosticsHeader("Debug")
+                        ListItem(
+                            headlineContent = { Text("Loopback transmitter") },
+                            supportingContent = { Text("Record frames instead of sending them. Restart to apply.") },
+                            trailingContent = {
+                                Switch(
+                                    checked = useLoopbackTransmitter,
+                                    onCheckedChange = {
+                                        useLoopbackTransmitter = it
+                                        supIRViewModel.preferencesRepository.useLoopbackTransmitter = it
+                                    }
+                                )
+                            }
+                        )
+
+                        if (transmitter is LoopbackTransmitter) {
+                            val recordedFrames by produceState(transmitter.count, transmitter) {
+                                while (true) {
+                                    value = transmitter.count
+                                    delay(1000)
+                                }
+                            }
+                            DiagnosticsItem("Recorded frames", recordedFrames.toString())
+                            Button(
+                                onClick = {
+                                    profilingScope.launch {
+                                        val file = withContext(Dispatchers.IO) {
+                                            File(context.getExternalFilesDir(null) ?: context.filesDir, "timeline.csv")
+                                                .also { file -> file.bufferedWriter().use { transmitter.exportTimeline(it) } }
+                                        }
+                                        context.showToast("Exported the timeline to $file")
+                                    }
+                                },
+                                modifier = Modifier.padding(16.dp)
+                            ) {
+                                Text("Export timeline")
+                            }
+                        }
+                    }
+                }
+            }
+        }
         composable<FunctionRoute> { backStackEntry ->
             val functionRoute: FunctionRoute = backStackEntry.toRoute()
 
-            val brand = supIRViewModel.allBrandsFlow.firstState { it.name == functionRoute.brandName }
-            val category = brand?.categories?.find { it.name == functionRoute.categoryName }
-            val model = category?.models?.find { it.identifier == functionRoute.modelIdentifier }
-            val function = model?.functions?.find { it.identifier == functionRoute.functionIdentifier }
+            val functionLookup = remember(functionRoute) {
+                supIRViewModel.catalog.function(functionRoute.modelId, functionRoute.functionId)
+            }.collectAsState().value
+            val function = functionLookup.valueOrNull
 
             if (function == null) {
-                FullscreenLoader()
+                LookupPlaceholder(functionLookup, "This command is no longer in the code database.")
                 return@composable
             }
 
             val context = LocalContext.current
             val transmissionScope = rememberCoroutineScope { Dispatchers.Main }
             val vibrator = LocalContext.current.getSystemService(Context.VIBRATOR_SERVICE) as Vibrator
+            var burstRepeats by remember { mutableIntStateOf(DEFAULT_BURST_REPEATS) }
 
             Box(
                 modifier = Modifier
@@ -527,33 +715,33 @@ fun SupIRNavHost(
                                             // ignore
                                         }
 
-                                        try {
-                                            function.transmitInitialPattern(context, supIRViewModel.transmitter!!)
-                                            context.showToast("Sent ${function.functionName} successfully.")
+                                        val transmitter = supIRViewModel.transmitter!!
+
+                                        val (preparedFunction, initialStartedAt) = try {
+                                            withContext(Dispatchers.IO) {
+                                                function.prepare(context, transmitter)
+                                            }.let {
+                                                it to it.transmitInitialPattern(transmitter)
+                                            }
                                         } catch (e: Exception) {
                                             context.showToast("Failed to send ${function.functionName}: ${e.message}")
                                             return@detectTapGestures
                                         }
+                                        context.showToast("Sent ${function.functionName} successfully.")
 
-                                        if (function.getIrpProcessor(context)?.canRepeat == true) {
+                                        if (preparedFunction.canRepeat) {
                                             val retransmissionJob = transmissionScope.launch {
-                                                delay(40)
-                                                while (isActive) {
-                                                    try {
-                                                        function.transmitRepeatPattern(
-                                                            context,
-                                                            supIRViewModel.transmitter
-                                                        )
-                                                        delay(108)
-                                                    } catch (e: Exception) {
-                                                        context.showToast("Failed to send ${function.functionName}: ${e.message}")
-                                                        return@launch
-                                                    }
+                                                try {
+                                                    preparedFunction.transmitRepeatsUntilCancelled(transmitter, initialStartedAt)
+                                                } catch (e: CancellationException) {
+                                                    throw e
+                                                } catch (e: Exception) {
+                                                    context.showToast("Failed to send ${function.functionName}: ${e.message}")
                                                 }
                                             }
 
                                             tryAwaitRelease()
-                                            retransmissionJob.cancelAndJoin()
+                                            transmitter.stopRepeats(retransmissionJob)
                                         }
                                     }
                                 )
@@ -575,6 +763,45 @@ fun SupIRNavHost(
                         )
                     }
                 }
+
+                // for receivers that only act on a button held for a while, like some power buttons
+                Row(
+                    modifier = Modifier
+                        .align(Alignment.BottomCenter)
+                        .padding(16.dp),
+                    verticalAlignment = Alignment.CenterVertically
+                ) {
+                    TextButton(onClick = { burstRepeats = maxOf(0, burstRepeats - 1) }) {
+                        Text("-")
+                    }
+                    Text(repeatsLabel(burstRepeats))
+                    TextButton(onClick = { burstRepeats = minOf(MAX_BURST_REPEATS, burstRepeats + 1) }) {
+                        Text("+")
+                    }
+                    Button(
+                        onClick = {
+                            val transmitter = supIRViewModel.transmitter!!
+                            val repeats = burstRepeats
+
+                            transmissionScope.launch {
+                                try {
+                                    withContext(Dispatchers.IO) {
+                                        function.prepare(context, transmitter)
+                                    }.transmitBurst(transmitter, repeats, transmitterProfile!!.maxPatternDuration)
+                                } catch (e: CancellationException) {
+                                    throw e
+                                } catch (e: Exception) {
+                                    context.showToast("Failed to send ${function.functionName}: ${e.message}")
+                                    return@launch
+                                }
+                                context.showToast("Sent ${function.functionName} with ${repeatsLabel(repeats)}.")
+                            }
+                        },
+                        modifier = Modifier.padding(start = 8.dp)
+                    ) {
+                        Text("Send")
+                    }
+                }
             }
         }
     }
@@ -0,0 +1,103 @@
+package xyz.regulad.supir
+
+import org.junit.Assert.*
+import org.junit.Test
+import xyz.regulad.supir.cache.BoundedCache
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BoundedCacheTest {
+    @Test
+    fun evictsLeastRecentlyUsedFirst() {
+        val cache = BoundedCache<Int, String>("test", maxWeight = 3, stripes = 1)
+
+        cache.putIfAbsent(1, "one")
+        cache.putIfAbsent(2, "two")
+        cache.putIfAbsent(3, "three")
+        assertEquals("one", cache[1]) // 2 is now the eldest
+        cache.putIfAbsent(4, "four")
+
+        assertNull(cache[2])
+        assertEquals("one", cache[1])
+        assertEquals("three", cache[3])
+        assertEquals("four", cache[4])
+    }
+
+    @Test
+    fun staysWithinMaxWeight() {
+        val cache = BoundedCache<Int, List<Int>>("test", maxWeight = 100, stripes = 4) { _, value -> value.size }
+
+        repeat(1_000) { cache.putIfAbsent(it, List(it % 10 + 1) { 0 }) }
+
+        assertTrue(cache.weight <= 100)
+    }
+
+    @Test
+    fun keepsAnEntryHeavierThanItsSegment() {
+        val cache = BoundedCache<Int, List<Int>>("test", maxWeight = 64, stripes = 8) { _, value -> value.size }
+
+        cache.putIfAbsent(1, List(4) { 0 })
+        val heavy = List(32) { 0 } // four times what one of the eight segments holds
+        assertSame(heavy, cache.putIfAbsent(2, heavy))
+        assertSame(heavy, cache[2])
+        assertEquals(heavy, cache.getOrPut(2) { fail("should not compute"); emptyList() })
+
+        // it is evicted like any other entry once something newer goes into its segment
+        repeat(64) { cache.putIfAbsent(it + 100, listOf(0)) }
+        assertNull(cache[2])
+        assertTrue(cache.weight <= 64)
+    }
+
+    @Test
+    fun keepsFirstValueOnRace() {
+        val cache = BoundedCache<String, String>("test", maxWeight = 10)
+
+        assertEquals("first", cache.putIfAbsent("key", "first"))
+        assertEquals("first", cache.putIfAbsent("key", "second"))
+        assertEquals("first", cache.getOrPut("key") { fail("should not compute"); "third" })
+    }
+
+    @Test
+    fun trimsAndClears() {
+        val cache = BoundedCache<Int, Int>("test", maxWeight = 8, stripes = 1)
+        repeat(8) { cache.putIfAbsent(it, it) }
+
+        cache.trimTo(0.5f)
+        assertEquals(4, cache.weight)
+        assertNull(cache[0])
+        assertEquals(7, cache[7])
+
+        cache.clear()
+        assertEquals(0, cache.weight)
+        assertNull(cache[7])
+    }
+
+    @Test
+    fun survivesConcurrentAccess() {
+        val cache = BoundedCache<Int, Int>("test", maxWeight = 64)
+        val computations = AtomicInteger()
+        val threads = 8
+        val start = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(threads)
+
+        val workers = (0 until threads).map { thread ->
+            executor.submit {
+                start.await()
+                repeat(50_000) {
+                    val key = (it * 31 + thread) % 256
+                    val value = cache.getOrPut(key) { computations.incrementAndGet(); key * 2 }
+                    assertEquals(key * 2, value)
+                }
+            }
+        }
+
+        start.countDown()
+        workers.forEach { it.get(1, TimeUnit.MINUTES) } // rethrows any assertion failure from the workers
+        executor.shutdown()
+
+        assertTrue(cache.weight <= 64)
+        assertTrue(computations.get() > 0)
+    }
+}
@@ -0,0 +1,68 @@
+package xyz.regulad.supir
+
+import com.obd.infrared.transmit.TransmitInfo
+import com.obd.infrared.transmit.Transmitter
+import com.obd.infrared.transmit.TransmitterType
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.transmitBurst
+import xyz.regulad.supir.makehex.IRPProcessor
+import java.util.Collections
+
+class BurstTransmissionTest {
+    private val nec1 = """
+        Frequency=38400
+        Time Base=564
+        One=1,-3
+        Zero=1,-1
+        Prefix=16,-8
+        Suffix=1,-78
+        R-Prefix=16,-4
+        Form=*,D:8,S:8,F:8,~F:8,_;*,_
+        Default S=~D
+        Device=0.0
+        Function=0..255
+    """.trimIndent()
+
+    private class RecordingTransmitter : Transmitter(null) {
+        val sent: MutableList<TransmitInfo> = Collections.synchronizedList(ArrayList())
+
+        override fun transmit(transmitInfo: TransmitInfo) {
+            sent.add(transmitInfo)
+        }
+    }
+
+    @Test
+    fun sendsExactlyTheRequestedRepeatsInFewCalls() = runBlocking {
+        val prepared = IRPProcessor.compile(nec1)!!
+            .prepare(IRDBFunction("Volume +", "NEC1", 4, -1, 2), TransmitterType.ACTUAL_NATIVE)
+        val transmitter = RecordingTransmitter()
+
+        val repeats = 50
+        prepared.transmitBurst(transmitter, repeats)
+
+        val expected = prepared.initialFrame.transmitInfo.pattern!! +
+                List(repeats) { prepared.repeatFrame!!.transmitInfo.pattern!!.toList() }.flatten()
+        val sent = transmitter.sent.flatMap { it.pattern!!.toList() }.toIntArray()
+        assertArrayEquals(expected, sent)
+
+        // 50 repeats of a 56 ms frame take about 3 seconds, which has to be split to stay under 2 seconds per call
+        assertEquals(2, transmitter.sent.size)
+        assertTrue(transmitter.sent.all { info -> info.pattern!!.sumOf { it.toLong() } <= 2_000_000 })
+    }
+
+    @Test
+    fun sendsOnlyTheInitialFrameWithoutRepeats() = runBlocking {
+        val prepared = IRPProcessor.compile(nec1)!!
+            .prepare(IRDBFunction("Volume +", "NEC1", 4, -1, 2), TransmitterType.ACTUAL_NATIVE)
+        val transmitter = RecordingTransmitter()
+
+        prepared.transmitBurst(transmitter, 0)
+
+        assertEquals(listOf(prepared.initialFrame.transmitInfo), transmitter.sent.toList())
+    }
+}
@@ -0,0 +1,32 @@
+package xyz.regulad.supir
+
+import org.junit.rules.TestWatcher
+import org.junit.runner.Description
+import xyz.regulad.supir.irdb.LoopbackTransmitter
+import xyz.regulad.supir.irdb.LoopbackTransmitter.HalBehaviour
+import xyz.regulad.supir.irdb.TransmitterManager.closeScheduler
+
+/**
+ * Gives each test a fresh [LoopbackTransmitter], prints what it recorded when the test fails, and closes its scheduler
+ * after the test.
+ */
+class LoopbackTransmitterRule(
+    private val behaviour: HalBehaviour = HalBehaviour.BLOCKING,
+    private val capacity: Int = LoopbackTransmitter.DEFAULT_CAPACITY,
+) : TestWatcher() {
+    lateinit var transmitter: LoopbackTransmitter
+        private set
+
+    override fun starting(description: Description) {
+        transmitter = LoopbackTransmitter(behaviour = behaviour, capacity = capacity)
+    }
+
+    override fun failed(e: Throwable, description: Description) {
+        System.err.println("Frames recorded by ${description.methodName}:")
+        transmitter.exportTimeline(System.err)
+    }
+
+    override fun finished(description: Description) {
+        transmitter.closeScheduler()
+    }
+}
@@ -0,0 +1,111 @@
+package xyz.regulad.supir
+
+import com.obd.infrared.transmit.TransmitInfo
+import com.obd.infrared.transmit.TransmitterType
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.LoopbackTransmitter
+import xyz.regulad.supir.irdb.LoopbackTransmitter.HalBehaviour
+import xyz.regulad.supir.irdb.PreparedFunction
+import xyz.regulad.supir.irdb.TransmitFrame
+import xyz.regulad.supir.irdb.stopRepeats
+import xyz.regulad.supir.irdb.transmitInitialPattern
+import xyz.regulad.supir.irdb.transmitRepeatsUntilCancelled
+import xyz.regulad.supir.makehex.EncodedPattern
+import java.lang.management.ManagementFactory
+
+class LoopbackTransmitterTest {
+    @get:Rule
+    val loopback = LoopbackTransmitterRule(HalBehaviour.INSTANT, capacity = 4)
+
+    private fun frame(tag: Int) = TransmitInfo(38000 + tag, intArrayOf(1000, 1000))
+
+    @Test
+    fun recordsTheLastFramesInOrder() {
+        val frames = List(10) { frame(it) }
+        frames.forEach { loopback.transmitter.transmit(it) }
+
+        val timeline = loopback.transmitter.timeline()
+        assertEquals(10L, loopback.transmitter.count)
+        assertEquals(frames.takeLast(4), timeline.map { it.transmitInfo })
+        assertTrue(timeline.zipWithNext().all { (previous, next) -> previous.calledAt <= next.calledAt })
+        assertTrue(timeline.all { it.endedAt - it.startedAt == 2_000_000L })
+    }
+
+    @Test
+    fun blocksLikeTheHalItEmulates() {
+        val pattern = TransmitInfo(38000, intArrayOf(10_000, 10_000))
+        val transmitter = LoopbackTransmitter(behaviour = HalBehaviour.BLOCKING)
+
+        transmitter.transmit(pattern)
+        transmitter.behaviour = HalBehaviour.NON_BLOCKING
+        transmitter.transmit(pattern)
+
+        val (blocking, nonBlocking) = transmitter.timeline()
+        assertTrue(blocking.returnedAt - blocking.calledAt >= 20_300_000L)
+        assertTrue(nonBlocking.returnedAt - nonBlocking.calledAt < 10_000_000L)
+        assertEquals(nonBlocking.startedAt + 20_000_000L, nonBlocking.endedAt)
+    }
+
+    @Test
+    fun convertsCyclesForTransmittersThatTakeThem() {
+        val transmitter = LoopbackTransmitter(emulatedType = TransmitterType.HTC, behaviour = HalBehaviour.INSTANT)
+
+        // 380 cycles at 38 kHz are 10 ms
+        transmitter.transmit(TransmitInfo(38000, intArrayOf(190, 190)))
+
+        val emission = transmitter.timeline().single()
+        assertEquals(10_000_000L, emission.endedAt - emission.startedAt)
+    }
+
+    @Test
+    fun recordingAllocatesNothing() {
+        val frame = frame(0)
+        repeat(10_000) { loopback.transmitter.transmit(frame) }
+
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val before = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+        repeat(100_000) { loopback.transmitter.transmit(frame) }
+        val allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id) - before
+
+        assertSame(frame, loopback.transmitter.timeline().last().transmitInfo)
+        assertTrue("allocated $allocated bytes over 100000 frames", allocated < 100_000)
+    }
+
+    @Test
+    fun repeatsFollowTheFramePeriod() = runBlocking {
+        val period = 30_000_000L
+        val transmitter = LoopbackTransmitter(behaviour = HalBehaviour.NON_BLOCKING)
+        val repeatFrame = EncodedPattern(38000, intArrayOf(9000, 21_000)).let {
+            TransmitFrame(it, TransmitInfo(it.frequency, it.pattern))
+        }
+        val prepared = PreparedFunction(
+            IRDBFunction("Volume +", "NEC1", 4, -1, 2),
+            TransmitterType.ACTUAL_NATIVE,
+            repeatFrame,
+            repeatFrame,
+        )
+
+        val initialStartedAt = prepared.transmitInitialPattern(transmitter)
+        val repeats = launch(Dispatchers.Default) { prepared.transmitRepeatsUntilCancelled(transmitter, initialStartedAt) }
+        delay(400)
+        transmitter.stopRepeats(repeats)
+
+        val starts = transmitter.timeline().map { it.startedAt }
+        assertTrue(starts.size >= 10)
+        // a HAL that returns at once would let a naive loop run ahead; every frame has to wait for its slot, give or
+        // take how long it takes to get from the scheduler into the transmitter
+        for ((previous, next) in starts.zipWithNext()) {
+            val interval = next - previous
+            assertTrue("frames ${interval / 1000} us apart", interval in period - 1_000_000L..period + 10_000_000L)
+        }
+    }
+}
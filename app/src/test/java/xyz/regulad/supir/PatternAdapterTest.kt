@@ -0,0 +1,94 @@
+package xyz.regulad.supir
+
+import com.obd.infrared.patterns.PatternAdapter
+import com.obd.infrared.patterns.PatternAdapterType
+import com.obd.infrared.patterns.PatternConverter
+import com.obd.infrared.patterns.PatternType
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Adapting a pattern must keep its length to the cycle and not allocate more than the result.
+ */
+class PatternAdapterTest {
+    // NEC1 at 38 kHz: a leader, a one bit and the trailing gap
+    private val intervals = intArrayOf(9000, 4500, 560, 1690, 560, 40_000)
+
+    private fun allocatedBytes(): Long {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    @Test
+    fun cyclesAddUpToTheWholePattern() {
+        val cycles = PatternConverter.convertIntervalsToCycles(38000, intervals)
+
+        // 9 ms is 342 cycles at 38 kHz, not 9000 / 26 = 346
+        assertEquals(342, cycles[0])
+        assertEquals(Math.round(intervals.sum() * 0.038), cycles.sum().toLong())
+    }
+
+    @Test
+    fun rejectsFrequenciesThatAreNotPositive() {
+        for (frequency in intArrayOf(0, -38000)) {
+            assertThrows(IllegalArgumentException::class.java) {
+                PatternConverter.convertIntervalsToCycles(frequency, intervals)
+            }
+            assertThrows(IllegalArgumentException::class.java) {
+                PatternConverter.convertCyclesToIntervals(frequency, intervals)
+            }
+            assertThrows(IllegalArgumentException::class.java) {
+                PatternAdapter(PatternAdapterType.ToCycles).adaptInto(frequency, intervals, IntArray(intervals.size))
+            }
+        }
+    }
+
+    @Test
+    fun roundTripDoesNotDrift() {
+        val converter = PatternConverter(PatternType.Intervals, 38000, *intervals)
+        val cycles = converter.convertDataTo(PatternType.Cycles)
+        val back = PatternConverter.convertCyclesToIntervals(38000, cycles)
+
+        // each pulse is off by less than a cycle, and the total by less than half of one
+        for (i in intervals.indices) assertTrue(Math.abs(back[i] - intervals[i]) <= 27)
+        assertTrue(Math.abs(back.sum() - intervals.sum()) <= 13)
+    }
+
+    @Test
+    fun intervalsAreSharedAndOthersAdaptedOnce() {
+        val native = PatternAdapter(PatternAdapterType.ToIntervals).createTransmitInfo(38000, intervals)
+        assertSame(intervals, native.pattern)
+
+        val htc = PatternAdapter(PatternAdapterType.ToCyclesHtcPattern)
+        val odd = intervals.copyOf(5)
+        val padded = htc.createTransmitInfo(38000, odd).pattern
+        assertEquals(6, htc.adaptedLength(5))
+        assertEquals(10, padded[5])
+
+        val samsung = PatternAdapter(PatternAdapterType.ToObsoleteSamsungString).createTransmitInfo(38000, intervals)
+        val cycles = PatternConverter.convertIntervalsToCycles(38000, intervals)
+        assertEquals("38000," + cycles.joinToString(","), samsung.obsoleteSamsungPattern[0])
+    }
+
+    @Test
+    fun adaptIntoAllocatesNothing() {
+        val adapter = PatternAdapter(PatternAdapterType.ToCycles)
+        val buffer = IntArray(adapter.adaptedLength(intervals.size))
+
+        // warm up the JIT before measuring
+        repeat(10_000) { adapter.adaptInto(38000, intervals, buffer) }
+
+        val calls = 100_000
+        val before = allocatedBytes()
+        repeat(calls) { adapter.adaptInto(38000, intervals, buffer) }
+        val allocated = allocatedBytes() - before
+
+        assertArrayEquals(PatternConverter.convertIntervalsToCycles(38000, intervals), buffer)
+        assertTrue("allocated $allocated bytes over $calls calls", allocated < calls)
+    }
+}
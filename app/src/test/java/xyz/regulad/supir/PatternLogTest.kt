@@ -0,0 +1,141 @@
+package xyz.regulad.supir
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import xyz.regulad.supir.irdb.FrameKey
+import xyz.regulad.supir.irdb.PatternLog
+import xyz.regulad.supir.makehex.EncodedPattern
+import java.io.File
+import java.io.RandomAccessFile
+
+class PatternLogTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val initialKey = FrameKey("NEC1", 4, -1, 2, false)
+    private val repeatKey = FrameKey("NEC1", 4, -1, 2, true)
+    private val otherKey = FrameKey("RC5", 0, -1, 12, true)
+
+    private val initialPattern = EncodedPattern(38400, intArrayOf(9024, 4512, 564, 1692, 564, 43992))
+    private val repeatPattern = EncodedPattern(38400, intArrayOf(9024, 2256, 564, 96156))
+
+    private fun assertSamePattern(expected: EncodedPattern, actual: EncodedPattern?) {
+        assertNotNull(actual)
+        assertEquals(expected.frequency, actual!!.frequency)
+        assertArrayEquals(expected.pattern, actual.pattern)
+    }
+
+    private fun writeLog(file: File) {
+        PatternLog(file).apply {
+            append(initialKey, initialPattern)
+            append(repeatKey, repeatPattern)
+            append(otherKey, null)
+            close()
+        }
+    }
+
+    @Test
+    fun readsBackWhatWasAppended() {
+        val file = File(temporaryFolder.root, "patterns/log.bin")
+        writeLog(file)
+
+        val frames = PatternLog(file).read()
+
+        assertEquals(3, frames.size)
+        assertSamePattern(initialPattern, frames[initialKey])
+        assertSamePattern(repeatPattern, frames[repeatKey])
+        assertTrue(otherKey in frames)
+        assertNull(frames[otherKey])
+    }
+
+    @Test
+    fun appendsAcrossReopening() {
+        val file = File(temporaryFolder.root, "log.bin")
+        PatternLog(file).apply {
+            append(initialKey, initialPattern)
+            close()
+        }
+        PatternLog(file).apply {
+            append(repeatKey, repeatPattern)
+            close()
+        }
+
+        assertEquals(setOf(initialKey, repeatKey), PatternLog(file).read().keys)
+    }
+
+    @Test
+    fun keepsFramesBeforeACutOffOne() {
+        val file = File(temporaryFolder.root, "log.bin")
+        writeLog(file)
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 3) }
+
+        val frames = PatternLog(file).read()
+        assertEquals(setOf(initialKey, repeatKey), frames.keys)
+
+        // the cut off frame is gone from the file too, so appending after it works
+        PatternLog(file).apply {
+            append(otherKey, null)
+            close()
+        }
+        assertEquals(setOf(initialKey, repeatKey, otherKey), PatternLog(file).read().keys)
+    }
+
+    @Test
+    fun truncatesAFrameCutOffInItsKey() {
+        val file = File(temporaryFolder.root, "log.bin")
+        PatternLog(file).apply {
+            append(initialKey, initialPattern)
+            append(repeatKey, repeatPattern)
+            close()
+        }
+        val lengthBeforeCut = file.length()
+        PatternLog(file).apply {
+            append(otherKey, null)
+            close()
+        }
+        // ends in the middle of the protocol name of the last frame
+        RandomAccessFile(file, "rw").use { it.setLength(lengthBeforeCut + 3) }
+
+        assertEquals(setOf(initialKey, repeatKey), PatternLog(file).read().keys)
+        assertEquals(lengthBeforeCut, file.length())
+    }
+
+    @Test
+    fun treatsAnImpossibleLengthAsCorruption() {
+        val file = File(temporaryFolder.root, "log.bin")
+        PatternLog(file).apply {
+            append(initialKey, initialPattern)
+            close()
+        }
+        val lengthBeforeCorruption = file.length()
+        PatternLog(file).apply {
+            append(repeatKey, repeatPattern)
+            close()
+        }
+        RandomAccessFile(file, "rw").use {
+            // past the protocol name (2 + 4 bytes), device, subdevice, function, repeat, and frequency
+            it.seek(lengthBeforeCorruption + 6 + 3 * 4 + 1 + 4)
+            it.writeInt(Int.MAX_VALUE)
+        }
+
+        assertEquals(setOf(initialKey), PatternLog(file).read().keys)
+        assertEquals(lengthBeforeCorruption, file.length())
+
+        PatternLog(file).apply {
+            append(otherKey, null)
+            close()
+        }
+        assertEquals(setOf(initialKey, otherKey), PatternLog(file).read().keys)
+    }
+
+    @Test
+    fun ignoresUnknownFormats() {
+        val file = File(temporaryFolder.root, "log.bin")
+        file.writeBytes(byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8))
+
+        assertTrue(PatternLog(file).read().isEmpty())
+        assertFalse(file.exists())
+    }
+}
@@ -0,0 +1,26 @@
+package xyz.regulad.supir
+
+import com.obd.infrared.patterns.PatternAdapter
+import com.obd.infrared.transmit.TransmitterType
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.IrEncoder.encodePattern
+import xyz.regulad.supir.irdb.IrEncoder.irpBinding
+import xyz.regulad.supir.irdb.PreparedFunction
+import xyz.regulad.supir.irdb.TransmitFrame
+import xyz.regulad.supir.makehex.IRPProcessor
+
+/**
+ * Prepares [function] like [xyz.regulad.supir.irdb.prepare] does, but with this processor instead of the protocol
+ * registry and without the [xyz.regulad.supir.irdb.PatternCache], which both need a Context.
+ */
+internal fun IRPProcessor.prepare(function: IRDBFunction, transmitterType: TransmitterType): PreparedFunction {
+    val binding = function.irpBinding
+    val patternAdapter = PatternAdapter(transmitterType)
+
+    return PreparedFunction(
+        function,
+        transmitterType,
+        TransmitFrame.of(encodePattern(binding, false), patternAdapter),
+        if (canRepeat) TransmitFrame.of(encodePattern(binding, true), patternAdapter) else null,
+    )
+}
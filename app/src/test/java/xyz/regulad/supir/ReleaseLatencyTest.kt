@@ -0,0 +1,58 @@
+package xyz.regulad.supir
+
+import com.obd.infrared.transmit.TransmitInfo
+import com.obd.infrared.transmit.TransmitterType
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.LoopbackTransmitter.HalBehaviour
+import xyz.regulad.supir.irdb.PreparedFunction
+import xyz.regulad.supir.irdb.TransmitFrame
+import xyz.regulad.supir.irdb.stopRepeats
+import xyz.regulad.supir.irdb.transmitInitialPattern
+import xyz.regulad.supir.irdb.transmitRepeatsUntilCancelled
+import xyz.regulad.supir.makehex.EncodedPattern
+
+/**
+ * Letting go of a held button must stop it within a frame, not after whatever was queued behind it.
+ */
+class ReleaseLatencyTest {
+    // blocks for as long as the pattern takes, like most ConsumerIrManager implementations do
+    @get:Rule
+    val loopback = LoopbackTransmitterRule(HalBehaviour.BLOCKING)
+
+    private fun frame(vararg pattern: Int) = EncodedPattern(38000, pattern).let {
+        TransmitFrame(it, TransmitInfo(it.frequency, it.pattern))
+    }
+
+    @Test
+    fun stopsWithinOneFrameOfRelease() = runBlocking {
+        val period = 40_000L // us
+        val prepared = PreparedFunction(
+            IRDBFunction("Volume +", "NEC1", 4, -1, 2),
+            TransmitterType.ACTUAL_NATIVE,
+            frame(9000, 31_000),
+            frame(9000, 31_000),
+        )
+        val transmitter = loopback.transmitter
+
+        val initialStartedAt = prepared.transmitInitialPattern(transmitter)
+        val repeats = launch(Dispatchers.Default) { prepared.transmitRepeatsUntilCancelled(transmitter, initialStartedAt) }
+        delay(300)
+
+        val latency = transmitter.stopRepeats(repeats)
+        val framesAtRelease = transmitter.count
+
+        // the frame in flight, and the call overhead on top of it
+        assertTrue("stopped ${latency / 1000} us after release", latency <= period * 1000 + HalBehaviour.BLOCKING.overhead)
+        delay(3 * period / 1000)
+        assertEquals(framesAtRelease, transmitter.count)
+        assertTrue(framesAtRelease >= 5)
+    }
+}
@@ -0,0 +1,95 @@
+package xyz.regulad.supir
+
+import com.obd.infrared.transmit.TransmitInfo
+import com.obd.infrared.transmit.Transmitter
+import com.obd.infrared.transmit.TransmitterType
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import xyz.regulad.supir.irdb.IRDBFunction
+import xyz.regulad.supir.irdb.TransmitScheduler
+import xyz.regulad.supir.irdb.TransmitScheduler.Priority
+import xyz.regulad.supir.makehex.IRPProcessor
+import java.lang.management.ManagementFactory
+
+/**
+ * Holding a button must not encode, convert, or box anything per repeat frame. Frames are sent through the scheduler
+ * like the app sends them, so each one allocates the scheduler's own request, which does not depend on the frame.
+ */
+class RepeatFrameAllocationTest {
+    private val nec1 = """
+        Frequency=38400
+        Time Base=564
+        One=1,-3
+        Zero=1,-1
+        Prefix=16,-8
+        Suffix=1,-78
+        R-Prefix=16,-4
+        Form=*,D:8,S:8,F:8,~F:8,_;*,_
+        Default S=~D
+        Device=0.0
+        Function=0..255
+    """.trimIndent()
+
+    private class RecordingTransmitter : Transmitter(null) {
+        @Volatile
+        var lastTransmitInfo: TransmitInfo? = null
+
+        @Volatile
+        var thread: Thread? = null
+
+        override fun transmit(transmitInfo: TransmitInfo) {
+            lastTransmitInfo = transmitInfo
+            thread = Thread.currentThread()
+        }
+    }
+
+    private val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    // what the sending thread and the scheduler's thread allocated together
+    private fun allocatedBytes(worker: Thread): Long = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id) +
+        threadMXBean.getThreadAllocatedBytes(worker.id)
+
+    private suspend fun bytesPerFrame(
+        scheduler: TransmitScheduler,
+        transmitter: RecordingTransmitter,
+        frame: TransmitInfo,
+    ): Long {
+        val frames = 100_000
+        val before = allocatedBytes(transmitter.thread!!)
+        repeat(frames) { scheduler.sendAt(frame, Priority.REPEAT, System.nanoTime()) }
+        return (allocatedBytes(transmitter.thread!!) - before) / frames
+    }
+
+    @Test
+    fun repeatFramesAllocateNothingButTheirRequest() = runBlocking {
+        val processor = IRPProcessor.compile(nec1)
+        assertNotNull(processor)
+
+        val transmitter = RecordingTransmitter()
+        val scheduler = TransmitScheduler(transmitter)
+        val prepared = processor!!.prepare(IRDBFunction("Volume +", "NEC1", 4, -1, 2), TransmitterType.ACTUAL_NATIVE)
+        val initialFrame = prepared.initialFrame.transmitInfo
+        val repeatFrame = prepared.repeatFrame!!.transmitInfo
+
+        // warm up the JIT and the scheduler's thread before measuring
+        repeat(10_000) {
+            scheduler.sendAt(initialFrame, Priority.REPEAT, System.nanoTime())
+            scheduler.sendAt(repeatFrame, Priority.REPEAT, System.nanoTime())
+        }
+
+        val repeatBytes = bytesPerFrame(scheduler, transmitter, repeatFrame)
+        assertSame(repeatFrame, transmitter.lastTransmitInfo)
+        val initialBytes = bytesPerFrame(scheduler, transmitter, initialFrame)
+        assertSame(initialFrame, transmitter.lastTransmitInfo)
+        scheduler.close()
+
+        // the initial frame is many times longer, so anything copied or converted per frame would show up here
+        assertTrue(
+            "a repeat frame allocated $repeatBytes bytes and an initial frame $initialBytes bytes",
+            initialBytes - repeatBytes < initialFrame.pattern.size * Int.SIZE_BYTES
+        )
+    }
+}
@@ -0,0 +1,66 @@
+package xyz.regulad.supir
+
+import com.obd.infrared.transmit.TransmitInfo
+import com.obd.infrared.transmit.Transmitter
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import xyz.regulad.supir.irdb.CarrierCapabilities
+import xyz.regulad.supir.irdb.TransmitLatency
+import xyz.regulad.supir.irdb.TransmitLatency.Sample
+import xyz.regulad.supir.irdb.TransmitProfiler
+
+class TransmitLatencyTest {
+    @Test
+    fun fitsABlockingHal() {
+        // 3 ms per call on top of the whole pattern
+        val latency = TransmitLatency(listOf(1_000, 10_000, 100_000).map { Sample(38_000, it, 3_000_000L + it * 1000L) })
+
+        assertEquals(3_000_000L, latency.overhead)
+        assertEquals(1.0, latency.blockingRatio, 0.001)
+        assertTrue(latency.blocks)
+        assertEquals(53_000_000L, latency.predict(50_000))
+        // 3 ms is 5% of 60 ms
+        assertEquals(60_000, latency.burstDuration(0, 2_000_000))
+    }
+
+    @Test
+    fun fitsAHalThatReturnsAtOnce() {
+        val latency = TransmitLatency(listOf(1_000, 10_000, 100_000).map { Sample(38_000, it, 500_000L) })
+
+        assertEquals(500_000L, latency.overhead)
+        assertEquals(0.0, latency.blockingRatio, 0.001)
+        assertFalse(latency.blocks)
+        assertEquals(10_000, latency.burstDuration(0, 2_000_000))
+        assertEquals(5_000, latency.burstDuration(0, 5_000))
+    }
+
+    @Test
+    fun fitsAtLeastOneFrameWithoutOverhead() {
+        // takes exactly as long as the pattern, like the instant loopback transmitter
+        val latency = TransmitLatency(listOf(1_000, 10_000, 100_000).map { Sample(38_000, it, it * 1000L) })
+
+        assertEquals(0L, latency.overhead)
+        assertEquals(108_000, latency.burstDuration(108_000, 2_000_000))
+        assertEquals(5_000, latency.burstDuration(108_000, 5_000))
+    }
+
+    @Test
+    fun profilesEveryFrequencyTheTransmitterSupports() = runBlocking {
+        val transmitter = object : Transmitter(null) {
+            override fun transmit(transmitInfo: TransmitInfo) = Thread.sleep(1)
+        }
+        var progress = 0f
+
+        val latency = TransmitProfiler.profile(transmitter, CarrierCapabilities.of(listOf(30_000..40_000))) {
+            progress = it
+        }
+
+        assertEquals(listOf(36_000, 38_000, 40_000), latency.frequencies)
+        assertEquals(1f, progress)
+        assertTrue(latency.overhead >= 1_000_000L)
+        assertTrue(latency.blockingRatio < 0.5)
+    }
+}
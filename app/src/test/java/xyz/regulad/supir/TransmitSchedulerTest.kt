@@ -0,0 +1,206 @@
+package xyz.regulad.supir
+
+import com.obd.infrared.transmit.TransmitInfo
+import com.obd.infrared.transmit.Transmitter
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import xyz.regulad.supir.irdb.TransmitScheduler
+import xyz.regulad.supir.irdb.TransmitScheduler.Priority
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class TransmitSchedulerTest {
+    /**
+     * Blocks on the first frame until [release] is called, so the test can queue frames behind it.
+     */
+    private class GatedTransmitter : Transmitter(null) {
+        val sent: MutableList<TransmitInfo> = Collections.synchronizedList(ArrayList())
+        val started = CountDownLatch(1)
+        private val gate = CountDownLatch(1)
+
+        fun release() = gate.countDown()
+
+        override fun transmit(transmitInfo: TransmitInfo) {
+            started.countDown()
+            gate.await(5, TimeUnit.SECONDS)
+            sent.add(transmitInfo)
+        }
+    }
+
+    private fun frame(tag: Int) = TransmitInfo(38000, intArrayOf(tag, 100))
+
+    // the frames are queued by coroutines on the test thread, so waiting has to yield to them
+    private suspend fun waitUntil(condition: () -> Boolean) {
+        while (!condition()) yield()
+    }
+
+    @Test
+    fun sendsPressesBeforeRepeatsAndBackgroundWork() = runBlocking {
+        val transmitter = GatedTransmitter()
+        val scheduler = TransmitScheduler(transmitter)
+        val busy = frame(0)
+        val background = frame(1)
+        val repeat = frame(2)
+        val press = frame(3)
+
+        val first = async { scheduler.send(busy, Priority.BACKGROUND) }
+        waitUntil { transmitter.started.count == 0L }
+
+        val results = listOf(
+            async { scheduler.send(background, Priority.BACKGROUND) },
+            async { scheduler.send(repeat, Priority.REPEAT) },
+            async { scheduler.send(press, Priority.PRESS) },
+        )
+        waitUntil { scheduler.metrics.queueDepth == 3 }
+        transmitter.release()
+
+        assertTrue(first.await())
+        assertTrue(results.all { it.await() })
+        assertEquals(listOf(busy, press, repeat, background), transmitter.sent.toList())
+    }
+
+    @Test
+    fun coalescesDuplicatePresses() = runBlocking {
+        val transmitter = GatedTransmitter()
+        val scheduler = TransmitScheduler(transmitter)
+        val press = frame(1)
+
+        val first = async { scheduler.send(frame(0), Priority.PRESS) }
+        waitUntil { transmitter.started.count == 0L }
+
+        val presses = List(3) { async { scheduler.send(press, Priority.PRESS) } }
+        waitUntil { scheduler.metrics.coalesced == 2L }
+        transmitter.release()
+
+        assertTrue(first.await())
+        assertTrue(presses.all { it.await() })
+        assertEquals(2, transmitter.sent.size)
+        assertEquals(2L, scheduler.metrics.coalesced)
+    }
+
+    @Test
+    fun coalescesRapidPressesQueuedForNow() = runBlocking {
+        val transmitter = GatedTransmitter()
+        val scheduler = TransmitScheduler(transmitter)
+        val press = frame(1)
+
+        val first = async { scheduler.sendAt(frame(0), Priority.PRESS, System.nanoTime()) }
+        waitUntil { transmitter.started.count == 0L }
+
+        // how the app sends a press: due now, every time the button is tapped
+        val presses = List(3) { async { scheduler.sendAt(press, Priority.PRESS, System.nanoTime()) } }
+        waitUntil { scheduler.metrics.coalesced == 2L }
+        assertEquals(1, scheduler.metrics.queueDepth)
+        transmitter.release()
+
+        assertTrue(first.await() != TransmitScheduler.NOT_SENT)
+        assertEquals(1, presses.map { it.await() }.distinct().size)
+        assertEquals(2, transmitter.sent.size)
+        assertEquals(0L, scheduler.metrics.timed)
+    }
+
+    @Test
+    fun dropsStaleRepeats() = runBlocking {
+        val transmitter = GatedTransmitter()
+        val scheduler = TransmitScheduler(transmitter)
+
+        val first = async { scheduler.send(frame(0), Priority.PRESS) }
+        waitUntil { transmitter.started.count == 0L }
+
+        val repeat = async { scheduler.send(frame(1), Priority.REPEAT, staleAfter = 1_000_000L) }
+        waitUntil { scheduler.metrics.queueDepth == 1 }
+        Thread.sleep(20)
+        transmitter.release()
+
+        assertTrue(first.await())
+        assertFalse(repeat.await())
+        assertEquals(1, transmitter.sent.size)
+        assertEquals(1L, scheduler.metrics.droppedStale)
+    }
+
+    @Test
+    fun evictsLowerPriorityFramesWhenFull() = runBlocking {
+        val transmitter = GatedTransmitter()
+        val scheduler = TransmitScheduler(transmitter, capacity = 2)
+
+        val first = async { scheduler.send(frame(0), Priority.PRESS) }
+        waitUntil { transmitter.started.count == 0L }
+
+        val background = async { scheduler.send(frame(1), Priority.BACKGROUND) }
+        val repeat = async { scheduler.send(frame(2), Priority.REPEAT) }
+        waitUntil { scheduler.metrics.queueDepth == 2 }
+
+        // a full queue evicts the background frame for a press, but refuses another background frame
+        val press = async { scheduler.send(frame(3), Priority.PRESS) }
+        assertFalse(background.await())
+        assertFalse(scheduler.send(frame(4), Priority.BACKGROUND))
+        transmitter.release()
+
+        assertTrue(first.await())
+        assertTrue(press.await())
+        assertTrue(repeat.await())
+        assertEquals(3, transmitter.sent.size)
+        assertEquals(2L, scheduler.metrics.rejected)
+    }
+
+    @Test
+    fun sendsTimedFramesWhenDueAndMeasuresJitter() = runBlocking {
+        val transmitter = GatedTransmitter()
+        transmitter.release()
+        val scheduler = TransmitScheduler(transmitter)
+
+        val dueAt = System.nanoTime() + 50_000_000L
+        val startedAt = scheduler.sendAt(frame(0), Priority.REPEAT, dueAt)
+        // a press queued after it is due now, so it does not wait behind it
+        val pressStartedAt = scheduler.sendAt(frame(1), Priority.PRESS, System.nanoTime())
+
+        assertTrue(startedAt >= dueAt)
+        assertTrue(pressStartedAt >= startedAt)
+        // the press is only due when it is queued, so it is a wait and not jitter
+        assertEquals(1L, scheduler.metrics.timed)
+        assertTrue(scheduler.metrics.maxJitter >= startedAt - dueAt)
+    }
+
+    @Test
+    fun pressesGoAheadOfRepeatsThatAreNotDueYet() = runBlocking {
+        val transmitter = GatedTransmitter()
+        transmitter.release()
+        val scheduler = TransmitScheduler(transmitter)
+        val repeat = frame(0)
+        val press = frame(1)
+
+        val dueAt = System.nanoTime() + 200_000_000L
+        val pending = async { scheduler.sendAt(repeat, Priority.REPEAT, dueAt) }
+        waitUntil { scheduler.metrics.queueDepth == 1 }
+
+        assertTrue(scheduler.send(press, Priority.PRESS))
+        assertEquals(listOf(press), transmitter.sent.toList())
+        assertTrue(pending.await() >= dueAt)
+        assertEquals(listOf(press, repeat), transmitter.sent.toList())
+    }
+
+    @Test
+    fun closingFailsQueuedFramesAndRefusesNewOnes() = runBlocking {
+        val transmitter = GatedTransmitter()
+        val scheduler = TransmitScheduler(transmitter)
+
+        val first = async { runCatching { scheduler.send(frame(0), Priority.PRESS) } }
+        waitUntil { transmitter.started.count == 0L }
+        val queued = async { runCatching { scheduler.send(frame(1), Priority.REPEAT) } }
+        waitUntil { scheduler.metrics.queueDepth == 1 }
+
+        scheduler.close()
+
+        assertTrue(queued.await().exceptionOrNull() is IllegalStateException)
+        // the gated transmitter stops waiting when interrupted, so the frame in flight is cut short
+        assertTrue(first.await().exceptionOrNull() is InterruptedException)
+        assertTrue(transmitter.sent.isEmpty())
+        assertTrue(runCatching { scheduler.send(frame(2), Priority.PRESS) }.exceptionOrNull() is IllegalStateException)
+    }
+}
@@ -0,0 +1,35 @@
+package xyz.regulad.supir.gradle
+
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.tasks.*
+
+/**
+ * Runs `GenerateProtocolRegistry` from the `makehex` module, which compiles every protocol in [protocolsDirectory] and
+ * writes the valid ones into a `ProtocolRegistry` Kotlin source in [outputDirectory], so the app never reads protocol
+ * assets at runtime.
+ *
+ * Protocols are validated with the app's own encoder, so the classpath has to be the `makehex` module's runtime
+ * classpath.
+ */
+abstract class GenerateProtocolRegistryTask : JavaExec() {
+    @get:InputDirectory
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    abstract val protocolsDirectory: DirectoryProperty
+
+    @get:OutputDirectory
+    abstract val outputDirectory: DirectoryProperty
+
+    init {
+        mainClass.set("xyz.regulad.supir.makehex.GenerateProtocolRegistryKt")
+    }
+
+    @TaskAction
+    override fun exec() {
+        outputDirectory.get().asFile.deleteRecursively()
+        args = listOf(
+            protocolsDirectory.get().asFile.path,
+            outputDirectory.get().asFile.path,
+        )
+        super.exec()
+    }
+}
@@ -0,0 +1,33 @@
+package xyz.regulad.supir.gradle
+
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.tasks.*
+
+/**
+ * Runs `PackIrdb` from the `makehex` module, which packs `codes/index` and every model CSV it lists into `irdb.bin` in
+ * [outputDirectory], a single file the app memory-maps at runtime.
+ *
+ * The CSVs are parsed with the same reader the app falls back to when the store is missing, so the classpath has to be
+ * the `makehex` module's runtime classpath.
+ */
+abstract class PackIrdbTask : JavaExec() {
+    @get:InputDirectory
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    abstract val codesDirectory: DirectoryProperty
+
+    @get:OutputDirectory
+    abstract val outputDirectory: DirectoryProperty
+
+    init {
+        mainClass.set("xyz.regulad.supir.makehex.PackIrdbKt")
+    }
+
+    @TaskAction
+    override fun exec() {
+        args = listOf(
+            codesDirectory.get().asFile.path,
+            outputDirectory.file("irdb.bin").get().asFile.path,
+        )
+        super.exec()
+    }
+}
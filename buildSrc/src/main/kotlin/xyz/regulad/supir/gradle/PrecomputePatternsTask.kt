@@ -0,0 +1,43 @@
+package xyz.regulad.supir.gradle
+
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.tasks.*
+
+/**
+ * Runs `PrecomputePatterns` from the `makehex` module, which encodes every function in `codes/` with the protocols the
+ * app ships and writes the frames to `patterns.bin` in [outputDirectory]. Functions that cannot be encoded are listed
+ * in [reportFile].
+ *
+ * The encoder is the same code the app runs, so the classpath has to be the `makehex` module's runtime classpath.
+ */
+abstract class PrecomputePatternsTask : JavaExec() {
+    @get:InputDirectory
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    abstract val codesDirectory: DirectoryProperty
+
+    @get:InputDirectory
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    abstract val protocolsDirectory: DirectoryProperty
+
+    @get:OutputDirectory
+    abstract val outputDirectory: DirectoryProperty
+
+    @get:OutputFile
+    abstract val reportFile: RegularFileProperty
+
+    init {
+        mainClass.set("xyz.regulad.supir.makehex.PrecomputePatternsKt")
+    }
+
+    @TaskAction
+    override fun exec() {
+        args = listOf(
+            codesDirectory.get().asFile.path,
+            protocolsDirectory.get().asFile.path,
+            outputDirectory.file("patterns.bin").get().asFile.path,
+            reportFile.get().asFile.path,
+        )
+        super.exec()
+    }
+}
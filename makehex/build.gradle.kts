@@ -0,0 +1,23 @@
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+kotlin {
+    compilerOptions {
+        jvmTarget.set(org.jetbrains.kotlin.gradle.dsl.JvmTarget.JVM_1_8)
+    }
+}
+
+application {
+    mainClass.set("xyz.regulad.supir.makehex.PrecomputePatternsKt")
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
@@ -0,0 +1,51 @@
+package xyz.regulad.supir.makehex
+
+/**
+ * Joins [frames] back to back into as few patterns as possible, so a whole burst of repeats takes a handful of
+ * transmit calls instead of one per frame.
+ *
+ * Each frame keeps its own trailing space, which is the gap before the next one, so the joined pattern sends the frames
+ * exactly one frame period apart. A frame that ends on a mark is given a 1 microsecond space, like the encoder does for
+ * initial frames, so it does not run into the next frame's leading mark.
+ *
+ * A new pattern is started whenever the next frame would take the current one past [maxDuration] microseconds or has a
+ * different carrier frequency. Frames are never split, so a frame that is longer than [maxDuration] on its own is
+ * returned as its own pattern.
+ */
+fun joinFrames(frames: List<EncodedPattern>, maxDuration: Long): List<EncodedPattern> {
+    val bursts = ArrayList<EncodedPattern>()
+
+    var start = 0
+    while (start < frames.size) {
+        val frequency = frames[start].frequency
+        var duration = frames[start].duration
+        var end = start + 1
+        while (end < frames.size && frames[end].frequency == frequency && duration + frames[end].duration <= maxDuration) {
+            duration += frames[end].duration
+            end++
+        }
+
+        bursts += if (end - start == 1) frames[start] else join(frames, start, end)
+        start = end
+    }
+
+    return bursts
+}
+
+private fun join(frames: List<EncodedPattern>, start: Int, end: Int): EncodedPattern {
+    var size = 0
+    for (index in start until end) {
+        size += frames[index].pattern.size.let { it + it % 2 }
+    }
+
+    val pattern = IntArray(size)
+    var offset = 0
+    for (index in start until end) {
+        val frame = frames[index].pattern
+        frame.copyInto(pattern, offset)
+        offset += frame.size
+        if (frame.size % 2 == 1) pattern[offset++] = 1
+    }
+
+    return EncodedPattern(frames[start].frequency, pattern)
+}
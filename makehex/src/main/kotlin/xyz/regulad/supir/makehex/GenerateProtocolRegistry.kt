@@ -0,0 +1,122 @@
+package xyz.regulad.supir.makehex
+
+import java.io.File
+import java.util.zip.CRC32
+import kotlin.system.exitProcess
+
+/*
+ * Compiles every protocol in a MakeHex `protocols` directory and writes the ones that compile, along with irdb's
+ * aliases for them and their carrier frequencies, into `ProtocolRegistry.kt`, so the app can find a definition or
+ * decide whether a protocol is transmittable without reading assets or parsing IRP. Run by the app's
+ * generate<Variant>ProtocolRegistry tasks.
+ *
+ * Usage: GenerateProtocolRegistry <protocols directory> <output directory>
+ */
+
+private const val REGISTRY_PACKAGE = "xyz.regulad.supir.irdb"
+
+private fun kotlinString(string: String): String = buildString {
+    append('"')
+    for (char in string) {
+        when (char) {
+            '\\' -> append("\\\\")
+            '"' -> append("\\\"")
+            '$' -> append("\\$")
+            '\n' -> append("\\n")
+            '\r' -> append("\\r")
+            '\t' -> append("\\t")
+            in ' '..'~' -> append(char)
+            else -> append("\\u%04x".format(char.code))
+        }
+    }
+    append('"')
+}
+
+private fun compile(protocol: String, definition: String): IRPProcessor? {
+    // the family only compiles once M and L are defined; any valid pair will do, since neither changes the carrier
+    val compiled = if (protocol == RC6_FAMILY) rc6Definition(definition, 0, 16) else definition
+    return try {
+        IRPProcessor.compile(compiled)
+    } catch (e: Exception) {
+        null
+    }
+}
+
+fun main(args: Array<String>) {
+    if (args.size != 2) {
+        System.err.println("Usage: GenerateProtocolRegistry <protocols directory> <output directory>")
+        exitProcess(2)
+    }
+
+    val (protocolsDirectory, outputDirectory) = args.map { File(it) }
+
+    val allDefinitions = readProtocolDefinitions(protocolsDirectory).toSortedMap()
+    val frequencies = allDefinitions
+        .mapValues { (protocol, definition) -> compile(protocol, definition)?.frequency?.toInt() }
+        .filterValues { it != null }
+        .mapValues { it.value!! }
+    val (definitions, invalidDefinitions) = allDefinitions.entries.partition { it.key in frequencies }
+
+    val definitionsHash = CRC32().run {
+        for ((protocol, definition) in definitions) {
+            update(protocol.toByteArray())
+            update(0)
+            update(definition.toByteArray())
+            update(0)
+        }
+        value.toInt()
+    }
+
+    // names with the same definition, such as aliases, or the same carrier share a branch
+    val protocolsByDefinition = definitions.groupBy({ it.value }, { it.key })
+    val protocolsByFrequency = frequencies.entries.groupBy({ it.value }, { it.key }).toSortedMap()
+
+    val output = outputDirectory.resolve(REGISTRY_PACKAGE.replace('.', '/')).resolve("ProtocolRegistry.kt")
+    output.parentFile.mkdirs()
+    output.printWriter().use { writer ->
+        writer.println("// Generated by GenerateProtocolRegistry from MakeHex/protocols. Do not edit.")
+        writer.println("package $REGISTRY_PACKAGE")
+        writer.println()
+        writer.println("import xyz.regulad.supir.makehex.RC6_FAMILY")
+        writer.println("import xyz.regulad.supir.makehex.rc6Parameters")
+        writer.println("import xyz.regulad.supir.makehex.resolveProtocolDefinition")
+        writer.println()
+        writer.println("internal object ProtocolRegistry {")
+        writer.println("    /**")
+        writer.println("     * A hash of every definition in the registry, which changes whenever one of them does.")
+        writer.println("     */")
+        writer.println("    const val DEFINITIONS_HASH: Int = $definitionsHash")
+        writer.println()
+        writer.println("    private fun exactDefinition(protocol: String): String? = when (protocol) {")
+        for ((definition, protocols) in protocolsByDefinition) {
+            writer.println("        ${protocols.joinToString(", ") { kotlinString(it) }} -> ${kotlinString(definition)}")
+        }
+        writer.println("        else -> null")
+        writer.println("    }")
+        writer.println()
+        writer.println("    /**")
+        writer.println("     * @return the IRP definition of an upper-cased protocol name, or null if it is unknown or did not compile")
+        writer.println("     */")
+        writer.println("    fun definition(protocol: String): String? = resolveProtocolDefinition(protocol, ::exactDefinition)")
+        writer.println()
+        writer.println("    private fun exactFrequency(protocol: String): Int = when (protocol) {")
+        for ((frequency, protocols) in protocolsByFrequency) {
+            writer.println("        ${protocols.joinToString(", ") { kotlinString(it) }} -> $frequency")
+        }
+        writer.println("        else -> -1")
+        writer.println("    }")
+        writer.println()
+        writer.println("    /**")
+        writer.println("     * @return the carrier frequency in hertz of an upper-cased protocol name, or -1 if it is unknown or did not compile")
+        writer.println("     */")
+        writer.println("    fun frequency(protocol: String): Int {")
+        writer.println("        val frequency = exactFrequency(protocol)")
+        writer.println("        if (frequency >= 0 || rc6Parameters(protocol) == null) return frequency")
+        writer.println("        return exactFrequency(RC6_FAMILY)")
+        writer.println("    }")
+        writer.println("}")
+    }
+
+    println("Registered ${definitions.size} protocol names; ${invalidDefinitions.size} did not compile")
+    invalidDefinitions.forEach { println("  ${it.key}") }
+}
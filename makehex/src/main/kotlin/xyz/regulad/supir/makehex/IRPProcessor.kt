@@ -0,0 +1,594 @@
+package xyz.regulad.supir.makehex
+
+import java.util.logging.Level
+import java.util.logging.Logger
+import kotlin.experimental.inv
+
+/**
+ * IRP class for handling Infrared Remote Protocol
+ * http://www.hifi-remote.com/wiki/index.php/IRP_Notation
+ *
+ * Heavily inspired by [MakeHex's implementation of IRP](https://github.com/probonopd/MakeHex)
+ *
+ * I, Parker Wahle, do not understand most of how this class works. Please add documentation if you understand!
+ */
+class IRPProcessor private constructor() {
+    var frequency: Double = 0.0 // without a frequency line, assume each is baseband
+        private set
+    var timeBase: Double = 1.0
+        private set
+    var messageTime: Double = 0.0
+        private set
+    var isMsb: Boolean = false
+        private set
+    private var bitGroup: Int = 2
+
+    private var prefix: String? = null
+    private var suffix: String? = null
+    private var repeatPrefix: String? = null
+    private var repeatSuffix: String? = null
+    private var form: String? = null
+
+    // the form never changes after compilation, so split it once instead of on every encode
+    var canRepeat: Boolean = false
+        private set
+    private var initialForm: String? = null
+    private var repeatForm: String? = null
+
+    companion object {
+        // java.util.logging reaches logcat on Android and the console at build time
+        private val logger = Logger.getLogger("IRP")
+
+        enum class Precedence { UNARY, TIMES, PLUS, COLON }
+        data class Value(var value: Double, var bits: Int)
+
+        /**
+         * Compiles an IRP protocol definition into an immutable processor that can be shared between threads.
+         *
+         * @return null if the definition is not a usable IRP
+         */
+        fun compile(irp: String): IRPProcessor? {
+            val processor = IRPProcessor()
+            return if (processor.readIrpString(irp)) processor else null
+        }
+
+        /**
+         * Parses a value that may be interspersed with letters and letter into a Value tuple
+         *
+         * Only `input[start, end)` is read, so callers can point at any position of a form or definition without
+         * copying it out first. Like the original substring-based parser, a nested parse never advances the cursor
+         * of its caller; only the caller's own scanning moves it.
+         */
+        private fun parseVal(
+            input: String,
+            start: Int,
+            end: Int,
+            config: IRPConfig,
+            binding: IrpBinding?,
+            prec: Precedence = Precedence.UNARY
+        ): Value {
+            if (start >= end) throw IllegalArgumentException("Expected a value")
+
+            var result = Value(0.0, 0)
+            var i = start
+
+            when {
+                input[i] in 'A'..'Z' -> {
+                    val letter = input[i]
+                    i++
+
+                    if (binding != null && binding.binds(letter)) {
+                        result.value = binding.valueOf(letter).toDouble()
+                    } else {
+                        config.getLetterDefinition(letter)
+                            ?.let { result = parseVal(it, 0, it.length, config, binding) }
+                            ?: run {
+                                result.value = config.getLetterValue(letter).toDouble()
+                            }
+                    }
+                }
+
+                input[i] in '0'..'9' -> {
+                    var literal = 0.0
+                    var digitIndex = i
+                    while (digitIndex < end && input[digitIndex] in '0'..'9') {
+                        literal = literal * 10 + (input[digitIndex] - '0')
+                        digitIndex++
+                    }
+                    result.value = literal
+                    i += literalWidth(literal)
+                }
+
+                input[i] == '-' -> {
+                    i++
+                    val temp = parseVal(input, i, end, config, binding, Precedence.UNARY)
+                    result.value = -temp.value
+                    result.bits = if (temp.bits > 0) 0 else temp.bits
+                }
+
+                input[i] == '~' -> {
+                    i++
+                    val temp = parseVal(input, i, end, config, binding, Precedence.UNARY)
+                    result.value = temp.value.toInt().toByte().inv().toDouble()
+                    if (temp.bits > 0) {
+                        result.value = (result.value.toInt() and config.mask[temp.bits]).toDouble()
+                        result.bits = temp.bits
+                    }
+                }
+
+                input[i] == '(' -> {
+                    val closingIndex = input.indexOf(')', i)
+                    if (closingIndex == -1 || closingIndex >= end) {
+                        throw IllegalArgumentException("Mismatched parentheses")
+                    }
+                    result = parseVal(input, i + 1, closingIndex, config, binding)
+                    i = closingIndex + 1
+                }
+            }
+
+            when {
+                i < end && input[i] == 'M' -> {
+                    result.value *= 1000
+                    result.bits = -1
+                    i++
+                }
+
+                i < end && input[i] == 'U' -> {
+                    result.bits = -1
+                    i++
+                }
+            }
+
+            while (i < end) {
+                val op = input[i]
+                when {
+                    prec.ordinal < Precedence.TIMES.ordinal && op == '*' -> {
+                        i++
+                        val temp = parseVal(input, i, end, config, binding, Precedence.TIMES)
+                        result.value *= temp.value
+                        if (result.bits > 0) result.bits = 0
+                    }
+
+                    prec.ordinal < Precedence.PLUS.ordinal && (op == '+' || op == '-' || op == '^') -> {
+                        i++
+                        val temp = parseVal(input, i, end, config, binding, Precedence.PLUS)
+                        when (op) {
+                            '+' -> result.value += temp.value
+                            '-' -> result.value -= temp.value
+                            '^' -> {
+                                result.value = (result.value.toInt() xor temp.value.toInt()).toDouble()
+                                if (result.bits > 0 && (temp.bits <= 0 || temp.bits > result.bits)) {
+                                    result.bits = temp.bits
+                                }
+                            }
+                        }
+                        if (result.bits > 0) result.bits = 0
+                    }
+
+                    prec.ordinal < Precedence.COLON.ordinal && op == ':' -> {
+                        i++
+                        val temp = parseVal(input, i, end, config, binding, Precedence.COLON)
+                        result.bits = temp.value.toInt()
+                        if (i < end && input[i] == ':') {
+                            i++
+                            val temp2 = parseVal(input, i, end, config, binding, Precedence.COLON)
+                            result.value = (result.value.toInt() ushr temp2.value.toInt()).toDouble()
+                        }
+                        if (result.bits < 0) {
+                            result.bits = -result.bits
+                            result.value = (reverse(result.value.toInt()) ushr (32 - result.bits)).toDouble()
+                        }
+                        result.value = (result.value.toInt() and config.mask[result.bits]).toDouble()
+                    }
+
+                    else -> break
+                }
+            }
+
+            return result
+        }
+
+        /**
+         * How far the parser skips after a numeric literal.
+         *
+         * The original parser advanced by the length of `value.toString()`, which also counts the ".0" a [Double]
+         * prints with. Every shipped pattern was encoded with that quirk, so it is kept as-is; the arithmetic below
+         * gives the same answer without formatting the number.
+         */
+        private fun literalWidth(value: Double): Int {
+            if (value >= 1e7) return value.toString().length // scientific notation, never seen in practice
+
+            var digits = 1
+            var remaining = value.toLong() / 10
+            while (remaining > 0) {
+                digits++
+                remaining /= 10
+            }
+            return digits + 2
+        }
+
+        // this is not a data class, its very mutable
+        class IRPConfig {
+            val digits: Array<String?> = arrayOfNulls(16)
+            private val definitions: Array<String?> = arrayOfNulls(26)
+            private val values: IntArray = IntArray(26)
+            val device: IntArray = intArrayOf(-1, -1)
+            val functions: IntArray = intArrayOf(-1, -1, -1, -1)
+            val mask: IntArray = createMask()
+
+            /**
+             * The IRP notation revolves around setting letters equal to given values, this is a helper function for that task.
+             */
+            fun setLetterDefinition(letter: Char, value: String?) {
+                definitions[letter.uppercaseChar() - 'A'] = value
+            }
+
+            fun getLetterDefinition(letter: Char) =
+                definitions[letter.uppercaseChar() - 'A']
+
+            fun setLetterValue(letter: Char, value: Int) {
+                values[letter.uppercaseChar() - 'A'] = value
+            }
+
+            fun getLetterValue(letter: Char) =
+                values[letter.uppercaseChar() - 'A']
+        }
+
+        private fun reverse(number: Int): Int = number.let { n ->
+            var result = n
+            result = ((result and 0x55555555) shl 1) or ((result ushr 1) and 0x55555555)
+            result = ((result and 0x33333333) shl 2) or ((result ushr 2) and 0x33333333)
+            result = ((result and 0x0F0F0F0F) shl 4) or ((result ushr 4) and 0x0F0F0F0F)
+            result = ((result and 0x00FF00FF) shl 8) or ((result ushr 8) and 0x00FF00FF)
+            (result ushr 16) or (result shl 16)
+        }
+
+        private fun createMask(): IntArray {
+            val mask = IntArray(33)
+            mask[0] = 0
+            (1..32).forEach { mask[it] = 2 * mask[it - 1] + 1 }
+            return mask
+        }
+
+        private fun getPair(result: IntArray, input: String) {
+            var current = input
+            for (nIndex in 0..1) {
+                val num = current.takeWhile { it.isDigit() }.toIntOrNull() ?: break
+                result[nIndex] = num
+                current = current.dropWhile { it.isDigit() }
+                if (current.length < 2 || current[0] != '.' || !current[1].isDigit()) break
+                current = current.drop(1)
+            }
+        }
+    }
+
+    private val config = IRPConfig()
+
+    private fun readIrpString(str: String): Boolean {
+        str.lines().map { it.uppercase().substringBefore("'").trim() }.filter { it.isNotEmpty() }
+            .forEach { line ->
+                try {
+                    processLine(line)
+                } catch (e: Exception) {
+                    logger.log(Level.SEVERE, "Error processing line: \"$line\"", e)
+                }
+            }
+
+        form?.let {
+            canRepeat = ";" in it
+            initialForm = it.substringBefore(";")
+            repeatForm = it.substringAfter(";", "")
+        }
+
+        return form != null &&
+                config.digits[0] != null &&
+                config.digits[1] != null &&
+                config.functions[0] != -1 &&
+                !(config.functions[2] >= 0 && config.functions[2] != config.functions[0] && config.functions[3] != config.functions[1])
+    }
+
+    private fun processLine(line: String) {
+        val nameValueList = line.split("=")
+        val (name, value) = Pair(nameValueList[0], nameValueList[1])
+
+        when {
+            name == "FREQUENCY" -> {
+                frequency = parseVal(value, 0, value.length, config, null).value
+            }
+
+            name == "TIME BASE" -> {
+                timeBase = parseVal(value, 0, value.length, config, null).value
+            }
+
+            name == "MESSAGE TIME" -> {
+                val parsed = parseVal(value, 0, value.length, config, null)
+                messageTime = if (parsed.bits == 0) parsed.value * timeBase else parsed.value
+            }
+
+            // numbers
+            name.toIntOrNull() != null -> {
+                setDigit(name.toInt(), value)
+            }
+            // pre-cooked number shorthands (rare but valid)
+            name == "ZERO" -> {
+                setDigit(0, value)
+            }
+
+            name == "ONE" -> {
+                setDigit(1, value)
+            }
+
+            name == "TWO" -> {
+                setDigit(2, value)
+            }
+
+            name == "THREE" -> {
+                setDigit(3, value)
+            }
+
+            name == "FOUR" -> {
+                setDigit(4, value)
+            }
+
+            name == "FIVE" -> {
+                setDigit(5, value)
+            }
+
+            name == "SIX" -> {
+                setDigit(6, value)
+            }
+
+            name == "SEVEN" -> {
+                setDigit(7, value)
+            }
+
+            name == "EIGHT" -> {
+                setDigit(8, value)
+            }
+
+            name == "NINE" -> {
+                setDigit(9, value)
+            }
+
+            name == "TEN" -> {
+                setDigit(10, value)
+            }
+
+            name == "ELEVEN" -> {
+                setDigit(11, value)
+            }
+
+            name == "TWELVE" -> {
+                setDigit(12, value)
+            }
+
+            name == "THIRTEEN" -> {
+                setDigit(13, value)
+            }
+
+            name == "FOURTEEN" -> {
+                setDigit(14, value)
+            }
+
+            name == "FIFTEEN" -> {
+                setDigit(15, value)
+            }
+
+            // forms, prefixes/suffixes, and repeated prefix/suffix
+            name == "PREFIX" -> {
+                prefix = value
+            }
+
+            name == "SUFFIX" -> {
+                suffix = value
+            }
+
+            name == "R-PREFIX" -> {
+                repeatPrefix = value
+            }
+
+            name == "R-SUFFIX" -> {
+                repeatSuffix = value
+            }
+
+            name == "FORM" -> {
+                form = value
+            }
+
+            // msb
+            name == "FIRST BIT" -> {
+                isMsb = value.equals("MSB", ignoreCase = true)
+            }
+
+            name.startsWith("DEFINE") || line.startsWith("DEFAULT") -> {
+                val letterBeingDefined = name.last()
+                config.setLetterDefinition(letterBeingDefined, value)
+            }
+
+            // devices/functions
+            name == "DEVICE" -> {
+                getPair(config.device, value)
+            }
+
+            name == "FUNCTION" -> {
+                getPair(config.functions, value)
+                if (value.startsWith("..")) {
+                    getPair(config.functions.copyOfRange(2, 4), value.substring(2))
+                }
+            }
+        }
+    }
+
+    private fun setDigit(d: Int, value: String) {
+        config.digits[d] = value
+        while (d >= bitGroup) bitGroup = bitGroup shl 1
+    }
+
+    /**
+     * Generates the hex value for a given form into [buffer] and returns the message time it covers.
+     *
+     * Each call writes its own segment starting at the current end of the buffer: pulses are only merged within the
+     * segment, and a segment can never start with a space.
+     *
+     * @param binding the device, subdevice, and function letters for this encode
+     * @param isRepeat repeats follow a different set of rules
+     */
+    private fun genHex(
+        pattern: String,
+        binding: IrpBinding,
+        buffer: PulseBuffer,
+        isRepeat: Boolean = false
+    ): Double {
+        val segmentStart = buffer.size
+        var cumulative = 0.0
+        var pendingBits = if (isMsb) 1 else bitGroup
+
+        var i = 0
+        while (i < pattern.length) {
+            when (pattern[i]) {
+                // for repeats, when a repeatPrefix is not defined, the regular prefix is used isntead
+
+                // prefix
+                '*' -> {
+                    cumulative += genHex((if (isRepeat) repeatPrefix ?: prefix else prefix) ?: "", binding, buffer)
+                    i++
+                }
+
+                // suffix
+                '_' -> {
+                    cumulative += genHex((if (isRepeat) repeatSuffix ?: suffix else suffix) ?: "", binding, buffer)
+                    i++
+                    if (cumulative < messageTime) {
+                        cumulative += buffer.append(segmentStart, cumulative - messageTime)
+                    }
+                }
+
+                '^' -> {
+                    i++
+                    val value = parseVal(pattern, i, pattern.length, config, binding)
+                    if (value.bits == 0) value.value *= timeBase
+                    if (cumulative < value.value) {
+                        cumulative += buffer.append(segmentStart, cumulative - value.value)
+                    }
+                    // seek to next command or end of string
+                    i = pattern.indexOf(',', i)
+                    if (i == -1) i = pattern.length
+                }
+
+                else -> {
+                    val value = parseVal(pattern, i, pattern.length, config, binding)
+                    if (value.bits == 0) value.value *= timeBase
+                    if (value.bits <= 0) {
+                        cumulative += buffer.append(segmentStart, value.value)
+                    } else {
+                        var number = value.value.toInt()
+                        if (isMsb) number = reverse(number) ushr (32 - value.bits)
+                        repeat(value.bits) {
+                            if (isMsb) {
+                                pendingBits = (pendingBits shl 1) + (number and 1)
+                                if (pendingBits and bitGroup != 0) {
+                                    cumulative += genHex(config.digits[pendingBits - bitGroup]!!, binding, buffer)
+                                    pendingBits = 1
+                                }
+                            } else {
+                                pendingBits = (pendingBits ushr 1) + (number and 1) * bitGroup
+                                if (pendingBits and 1 != 0) {
+                                    cumulative += genHex(config.digits[pendingBits ushr 1]!!, binding, buffer)
+                                    pendingBits = bitGroup
+                                }
+                            }
+                            number = number ushr 1
+                        }
+                    }
+                    // seek to next command or end of string
+                    i = pattern.indexOf(',', i)
+                    if (i == -1) i = pattern.length
+                }
+            }
+
+            i++
+        }
+
+        return cumulative
+    }
+
+    /**
+     * Encodes one frame into [buffer], replacing its contents.
+     *
+     * Repeat frames are padded out to the message time and end on a space like initial frames are, so a frame lasts
+     * one frame period even if its form has no `_` or `^` to pad it. MakeHex only does this for initial frames, see
+     * [generateRawData].
+     *
+     * The processor itself is never modified, so this is safe to call from any thread as long as each thread brings
+     * its own buffer.
+     *
+     * @param binding the device, subdevice, and function to encode
+     * @param isRepeat whether the data is a repeat
+     */
+    fun encode(binding: IrpBinding, isRepeat: Boolean, buffer: PulseBuffer) = encode(binding, isRepeat, buffer, true)
+
+    private fun encode(binding: IrpBinding, isRepeat: Boolean, buffer: PulseBuffer, padRepeat: Boolean) {
+        buffer.clear()
+
+        val cumulative = genHex((if (isRepeat) repeatForm else initialForm) ?: "", binding, buffer, isRepeat = isRepeat)
+
+        if (!isRepeat || padRepeat) {
+            if (cumulative < messageTime) {
+                buffer.append(0, cumulative - messageTime)
+            }
+
+            if (buffer.size % 2 == 1) {
+                buffer.append(0, -1.0)
+            }
+        }
+    }
+
+    /**
+     * Generates the raw data for the IRPProcessor exactly as MakeHex does, which leaves repeat frames unpadded
+     *
+     * @param binding the device, subdevice, and function to encode
+     * @param isRepeat whether the data is a repeat
+     */
+    fun generateRawData(binding: IrpBinding, isRepeat: Boolean = false): DoubleArray {
+        val buffer = PulseBuffer()
+        encode(binding, isRepeat, buffer, padRepeat = false)
+        return buffer.toDoubleArray()
+    }
+}
+
+/**
+ * The per-call inputs of an [IRPProcessor]: the values bound to the D, S, and F letters of a protocol.
+ *
+ * A subdevice of -1 leaves S unbound, so the protocol's own definition (usually a default derived from D) is used.
+ */
+class IrpBinding(val device: Int, val subdevice: Int, val function: Int) {
+    fun binds(letter: Char): Boolean = when (letter) {
+        'D', 'F' -> true
+        'S' -> subdevice != -1
+        else -> false
+    }
+
+    fun valueOf(letter: Char): Int = when (letter) {
+        'D' -> device
+        'S' -> subdevice
+        'F' -> function
+        else -> throw IllegalArgumentException("Letter $letter is not bound")
+    }
+}
+
+/**
+ * One frame of a function ready to be sent: a carrier frequency in hertz and alternating mark/space durations in
+ * microseconds, starting with a mark.
+ */
+class EncodedPattern(val frequency: Int, val pattern: IntArray) {
+    /**
+     * How long the frame takes in microseconds, including its trailing space, which the encoder pads out to the
+     * protocol's message time if it has one. This is the frame period: when the next frame of a held button is due.
+     */
+    val duration: Long
+        get() {
+            var total = 0L
+            for (length in pattern) total += length
+            return total
+        }
+}
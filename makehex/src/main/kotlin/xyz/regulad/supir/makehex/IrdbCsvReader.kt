@@ -0,0 +1,217 @@
+package xyz.regulad.supir.makehex
+
+import java.io.Closeable
+import java.io.Reader
+
+/**
+ * Streaming reader for irdb model CSVs, whose records are `functionname,protocol,device,subdevice,function`.
+ *
+ * The input is read in one pass through a fixed character buffer. Fields may be quoted (with `""` for a literal
+ * quote), the numeric fields are parsed in place, and only the function name and protocol become strings. The header
+ * line and blank lines are skipped; any other line that is not a valid record is reported to [onMalformedLine] with
+ * its 1-based line number and then skipped.
+ *
+ * This is the only CSV parser for the code database: the build packs and precomputes with it and the app falls back to
+ * it, so every one of them reads the same function names, and so the same function ids, out of the same file.
+ */
+class IrdbCsvReader(
+    private val reader: Reader,
+    private val onMalformedLine: (lineNumber: Int, reason: String) -> Unit = { _, _ -> },
+) : Closeable {
+    private val chunk = CharArray(8192)
+    private var chunkLength = 0
+    private var chunkPosition = 0
+    private var pendingChar = NO_CHAR
+
+    private val field = StringBuilder()
+    private val numbers = IntArray(3)
+    private var malformedReason: String? = null
+
+    /**
+     * The fields of the last record read by [next].
+     */
+    var functionName = ""
+        private set
+    var protocol = ""
+        private set
+    val device: Int
+        get() = numbers[0]
+    val subdevice: Int
+        get() = numbers[1]
+    val function: Int
+        get() = numbers[2]
+
+    /**
+     * The line the last record was read from.
+     */
+    var lineNumber = 0
+        private set
+
+    private fun nextChar(): Int {
+        if (pendingChar != NO_CHAR) {
+            return pendingChar.also { pendingChar = NO_CHAR }
+        }
+        if (chunkPosition == chunkLength) {
+            chunkLength = reader.read(chunk)
+            chunkPosition = 0
+            if (chunkLength <= 0) {
+                chunkLength = 0
+                return END_OF_INPUT
+            }
+        }
+        return chunk[chunkPosition++].code
+    }
+
+    private fun skipLine(): Boolean {
+        while (true) {
+            when (nextChar()) {
+                END_OF_INPUT -> return false
+                '\n'.code -> return true
+            }
+        }
+    }
+
+    private fun parseNumber(): Int? {
+        if (field.isEmpty()) return null
+
+        val negative = field[0] == '-'
+        var index = if (negative || field[0] == '+') 1 else 0
+        if (index == field.length) return null
+
+        var value = 0L
+        while (index < field.length) {
+            val digit = field[index] - '0'
+            if (digit !in 0..9) return null
+            value = value * 10 + digit
+            if (value > Int.MAX_VALUE.toLong() + 1) return null
+            index++
+        }
+
+        if (negative) value = -value
+        return if (value in Int.MIN_VALUE..Int.MAX_VALUE) value.toInt() else null
+    }
+
+    private fun completeField(index: Int) {
+        if (malformedReason == null) {
+            when (index) {
+                0 -> functionName = field.toString()
+                1 -> protocol = field.toString()
+                2, 3, 4 -> {
+                    val number = parseNumber()
+                    if (number == null) {
+                        malformedReason = "field ${index + 1} is not an integer: \"$field\""
+                    } else {
+                        numbers[index - 2] = number
+                    }
+                }
+            }
+        }
+        field.setLength(0)
+    }
+
+    /**
+     * Reads one physical line into the record fields.
+     *
+     * @return the number of fields on the line, 0 for a blank line, or -1 at the end of the input
+     */
+    private fun readRecord(): Int {
+        malformedReason = null
+        field.setLength(0)
+
+        var fieldIndex = 0
+        var inQuotes = false
+        var isBlank = true
+
+        while (true) {
+            val next = nextChar()
+
+            if (next == END_OF_INPUT) {
+                if (isBlank && fieldIndex == 0) return -1
+                if (inQuotes) malformedReason = "unterminated quote"
+                break
+            }
+
+            val char = next.toChar()
+
+            if (inQuotes) {
+                when (char) {
+                    '"' -> {
+                        val following = nextChar()
+                        if (following == '"'.code) {
+                            field.append('"')
+                        } else {
+                            inQuotes = false
+                            pendingChar = following
+                        }
+                    }
+
+                    '\n' -> {
+                        malformedReason = "unterminated quote"
+                        break
+                    }
+
+                    else -> field.append(char)
+                }
+                continue
+            }
+
+            when (char) {
+                '\n' -> break
+                '\r' -> {}
+                '"' -> {
+                    isBlank = false
+                    if (field.isEmpty()) inQuotes = true else field.append(char)
+                }
+
+                ',' -> {
+                    isBlank = false
+                    completeField(fieldIndex)
+                    fieldIndex++
+                }
+
+                else -> {
+                    if (!char.isWhitespace()) isBlank = false
+                    field.append(char)
+                }
+            }
+        }
+
+        if (isBlank && fieldIndex == 0) return 0
+
+        completeField(fieldIndex)
+        return fieldIndex + 1
+    }
+
+    /**
+     * Reads the next valid record into [functionName], [protocol], [device], [subdevice], and [function], or returns
+     * false once the input is exhausted.
+     */
+    fun next(): Boolean {
+        if (lineNumber == 0) {
+            lineNumber++
+            if (!skipLine()) return false // header only
+        }
+
+        while (true) {
+            lineNumber++
+            val fieldCount = readRecord()
+
+            when {
+                fieldCount == -1 -> return false
+                fieldCount == 0 -> continue
+                fieldCount != 5 -> onMalformedLine(lineNumber, "expected 5 fields, found $fieldCount")
+                malformedReason != null -> onMalformedLine(lineNumber, malformedReason!!)
+                else -> return true
+            }
+        }
+    }
+
+    override fun close() {
+        reader.close()
+    }
+
+    private companion object {
+        const val NO_CHAR = -2
+        const val END_OF_INPUT = -1
+    }
+}
@@ -0,0 +1,219 @@
+package xyz.regulad.supir.makehex
+
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.util.BitSet
+import java.util.zip.CRC32
+import kotlin.system.exitProcess
+
+/*
+ * Packs `codes/index` and every model CSV it lists into `irdb.bin`, a single file the app memory-maps at runtime. Run
+ * by the app's pack<Variant>Irdb tasks.
+ *
+ * Usage: PackIrdb <codes directory> <output file>
+ *
+ * All integers are big-endian. The layout is:
+ *
+ * ```
+ * header      "SIRD", version, CRC32 of codes/index, then the string, brand, category, model, function, and protocol
+ *             counts
+ * strings     stringCount + 1 byte offsets into the UTF-8 data that follows, padded to a multiple of 4 bytes
+ * brands      (name, first category, category count)
+ * categories  (name, first model, model count)
+ * models      (name, first function, function count)
+ * functions   (name, protocol, device, subdevice, function)
+ * protocols   (name), upper-cased, one per distinct protocol
+ * masks       for every brand, then every category, then every model: (protocolCount + 31) / 32 words with bit p
+ *             (word p / 32, bit p % 32) set if protocol p is used anywhere under it
+ * ```
+ *
+ * Names and protocols are ids into the string table. Brands, categories, and models are sorted by name, and models
+ * without a single valid function are left out along with any category or brand that ends up empty. The masks let the
+ * app hide whatever the device cannot transmit without reading a single function.
+ *
+ * Rows are read with IrdbCsvReader, the same parser the app falls back to, so both see the same function names.
+ *
+ * Keep in sync with `IrdbStore` in the app.
+ */
+
+private const val FORMAT_VERSION = 2
+
+private class IrdbPacker(private val codes: File) {
+    private class PackedFunction(
+        val name: Int,
+        val protocol: Int,
+        val device: Int,
+        val subdevice: Int,
+        val function: Int
+    )
+
+    private class PackedModel(val name: String, val functions: List<PackedFunction>, val protocols: BitSet)
+
+    private val strings = LinkedHashMap<String, Int>()
+
+    private fun intern(string: String): Int = strings.getOrPut(string) { strings.size }
+
+    // protocols are case-insensitive at runtime, so mixed-case spellings share a mask bit
+    private val protocols = LinkedHashMap<String, Int>()
+
+    private fun protocolBit(protocol: String): Int = protocols.getOrPut(protocol.uppercase()) { protocols.size }
+
+    private fun readModel(brandName: String, categoryName: String, fileName: String): PackedModel? {
+        // irdb has shipped both codes/Brand/Category/ and codes/Brand.Category/ layouts
+        val csv = codes.resolve("$brandName.$categoryName/$fileName").takeIf { it.isFile }
+            ?: codes.resolve("$brandName/$categoryName/$fileName").takeIf { it.isFile }
+
+        if (csv == null) {
+            System.err.println("irdb: $brandName/$categoryName/$fileName is listed in the index but does not exist")
+            return null
+        }
+
+        val modelProtocols = BitSet()
+        val functions = ArrayList<PackedFunction>()
+        IrdbCsvReader(csv.reader()) { lineNumber, reason ->
+            System.err.println("irdb: skipping invalid line $lineNumber of $brandName/$categoryName/$fileName: $reason")
+        }.use { reader ->
+            while (reader.next()) {
+                modelProtocols.set(protocolBit(reader.protocol))
+                functions += PackedFunction(
+                    intern(reader.functionName),
+                    intern(reader.protocol),
+                    reader.device,
+                    reader.subdevice,
+                    reader.function,
+                )
+            }
+        }
+
+        return if (functions.isEmpty()) null else PackedModel(fileName.removeSuffix(".csv"), functions, modelProtocols)
+    }
+
+    fun pack(output: File) {
+        val indexBytes = codes.resolve("index").readBytes()
+        val indexCrc = CRC32().apply { update(indexBytes) }.value.toInt()
+
+        // brand -> category -> models, everything sorted the way the app lists it
+        val catalog = String(indexBytes, Charsets.UTF_8)
+            .lines()
+            .filter { it.isNotBlank() }
+            .map { it.split("/") }
+            .groupBy { it[0] }
+            .toSortedMap()
+            .mapValues { (brandName, brandEntries) ->
+                brandEntries
+                    .groupBy { it[1] }
+                    .toSortedMap()
+                    .mapValues { (categoryName, categoryEntries) ->
+                        categoryEntries
+                            .mapNotNull { readModel(brandName, categoryName, it[2]) }
+                            .sortedBy { it.name }
+                    }
+                    .filterValues { it.isNotEmpty() }
+            }
+            .filterValues { it.isNotEmpty() }
+
+        // names are interned after the functions so the hot protocol and function strings come first
+        val brandNames = catalog.keys.map { intern(it) }
+        val categoryNames = catalog.values.flatMap { categories -> categories.keys.map { intern(it) } }
+        val models = catalog.values.flatMap { categories -> categories.values.flatten() }
+        val modelNames = models.map { intern(it.name) }
+        val protocolNames = protocols.keys.map { intern(it) }
+
+        val categoryProtocols = catalog.values.flatMap { categories ->
+            categories.values.map { categoryModels -> BitSet().apply { categoryModels.forEach { or(it.protocols) } } }
+        }
+        val brandProtocols = catalog.values.map { categories ->
+            BitSet().apply { categories.values.flatten().forEach { or(it.protocols) } }
+        }
+        val maskWords = (protocolNames.size + 31) / 32
+
+        val stringBytes = strings.keys.map { it.toByteArray(Charsets.UTF_8) }
+        val categoryCount = categoryNames.size
+        val functionCount = models.sumOf { it.functions.size }
+
+        output.parentFile?.mkdirs()
+
+        DataOutputStream(BufferedOutputStream(output.outputStream())).use { out ->
+            out.writeBytes("SIRD")
+            out.writeInt(FORMAT_VERSION)
+            out.writeInt(indexCrc)
+            out.writeInt(stringBytes.size)
+            out.writeInt(catalog.size)
+            out.writeInt(categoryCount)
+            out.writeInt(models.size)
+            out.writeInt(functionCount)
+            out.writeInt(protocolNames.size)
+
+            var stringOffset = 0
+            out.writeInt(stringOffset)
+            for (bytes in stringBytes) {
+                stringOffset += bytes.size
+                out.writeInt(stringOffset)
+            }
+            stringBytes.forEach { out.write(it) }
+            repeat((4 - stringOffset % 4) % 4) { out.writeByte(0) }
+
+            var categoryIndex = 0
+            catalog.values.forEachIndexed { brandIndex, categories ->
+                out.writeInt(brandNames[brandIndex])
+                out.writeInt(categoryIndex)
+                out.writeInt(categories.size)
+                categoryIndex += categories.size
+            }
+
+            var modelIndex = 0
+            catalog.values.flatMap { it.values }.forEachIndexed { index, categoryModels ->
+                out.writeInt(categoryNames[index])
+                out.writeInt(modelIndex)
+                out.writeInt(categoryModels.size)
+                modelIndex += categoryModels.size
+            }
+
+            var functionIndex = 0
+            models.forEachIndexed { index, model ->
+                out.writeInt(modelNames[index])
+                out.writeInt(functionIndex)
+                out.writeInt(model.functions.size)
+                functionIndex += model.functions.size
+            }
+
+            for (model in models) {
+                for (function in model.functions) {
+                    out.writeInt(function.name)
+                    out.writeInt(function.protocol)
+                    out.writeInt(function.device)
+                    out.writeInt(function.subdevice)
+                    out.writeInt(function.function)
+                }
+            }
+
+            protocolNames.forEach { out.writeInt(it) }
+
+            for (mask in brandProtocols + categoryProtocols + models.map { it.protocols }) {
+                for (word in 0 until maskWords) {
+                    var bits = 0
+                    for (bit in 0 until 32) {
+                        if (mask.get(word * 32 + bit)) bits = bits or (1 shl bit)
+                    }
+                    out.writeInt(bits)
+                }
+            }
+        }
+
+        println(
+            "irdb: packed ${catalog.size} brands, $categoryCount categories, ${models.size} models, " +
+                    "$functionCount functions, and ${protocolNames.size} protocols into ${output.length()} bytes"
+        )
+    }
+}
+
+fun main(args: Array<String>) {
+    if (args.size != 2) {
+        System.err.println("Usage: PackIrdb <codes directory> <output file>")
+        exitProcess(2)
+    }
+
+    val (codes, output) = args.map { File(it) }
+    IrdbPacker(codes).pack(output)
+}
@@ -0,0 +1,211 @@
+package xyz.regulad.supir.makehex
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+
+/*
+ * A pattern table holds the encoded frames of every function in the code database, so the app can send them without
+ * running the IRP encoder. It is written at build time by PrecomputePatterns and memory-mapped by the app.
+ *
+ * All integers are big-endian. The layout is:
+ *
+ * ```
+ * header     "SPPT", version, CRC32 of codes/index, then the protocol, entry, and pattern counts
+ * entries    (protocol, device, subdevice, function, initial pattern, repeat pattern or -1), sorted by the first four
+ * patterns   (frequency, byte offset of its pulses, pulse count)
+ * protocols  protocolCount + 1 byte offsets into the UTF-8 names that follow, which are upper-cased and sorted
+ * pulses     unsigned LEB128 varints, one per pulse
+ * ```
+ *
+ * Identical frames, which are common since many models share codes, are stored once.
+ */
+
+private const val TABLE_MAGIC = 0x53505054 // "SPPT"
+private const val TABLE_VERSION = 1
+private const val HEADER_SIZE = 24
+private const val ENTRY_SIZE = 24
+private const val PATTERN_SIZE = 12
+
+/**
+ * The frames of one function, as written to a pattern table.
+ */
+class PrecomputedFunction(
+    val protocol: String,
+    val device: Int,
+    val subdevice: Int,
+    val function: Int,
+    val initialPattern: EncodedPattern,
+    val repeatPattern: EncodedPattern?,
+)
+
+/**
+ * Writes a pattern table of [functions], which must be unique by protocol, device, subdevice, and function and have
+ * upper-cased protocols.
+ */
+fun writePatternTable(output: OutputStream, indexCrc: Int, functions: List<PrecomputedFunction>) {
+    val protocols = functions.map { it.protocol }.distinct().sorted()
+    val protocolIds = protocols.withIndex().associate { (id, protocol) -> protocol to id }
+    val sortedFunctions = functions.sortedWith(
+        compareBy({ protocolIds[it.protocol] }, { it.device }, { it.subdevice }, { it.function })
+    )
+
+    // frames are deduplicated by content; lists of boxed ints are only used as keys while writing
+    val patternIds = HashMap<Pair<Int, List<Int>>, Int>()
+    val patterns = ArrayList<EncodedPattern>()
+    fun patternId(pattern: EncodedPattern): Int = patternIds.getOrPut(pattern.frequency to pattern.pattern.toList()) {
+        patterns.add(pattern)
+        patterns.size - 1
+    }
+
+    val entries = sortedFunctions.map { function ->
+        intArrayOf(
+            protocolIds.getValue(function.protocol),
+            function.device,
+            function.subdevice,
+            function.function,
+            patternId(function.initialPattern),
+            function.repeatPattern?.let { patternId(it) } ?: -1,
+        )
+    }
+
+    val pulses = ByteArrayOutputStream()
+    val patternOffsets = patterns.map { pattern ->
+        pulses.size().also {
+            for (pulse in pattern.pattern) {
+                var remaining = pulse
+                while (remaining and 0x7F.inv() != 0) {
+                    pulses.write((remaining and 0x7F) or 0x80)
+                    remaining = remaining ushr 7
+                }
+                pulses.write(remaining)
+            }
+        }
+    }
+
+    val protocolBytes = protocols.map { it.toByteArray(Charsets.UTF_8) }
+
+    DataOutputStream(output.buffered()).apply {
+        writeInt(TABLE_MAGIC)
+        writeInt(TABLE_VERSION)
+        writeInt(indexCrc)
+        writeInt(protocols.size)
+        writeInt(entries.size)
+        writeInt(patterns.size)
+
+        entries.forEach { entry -> entry.forEach { writeInt(it) } }
+        patterns.forEachIndexed { index, pattern ->
+            writeInt(pattern.frequency)
+            writeInt(patternOffsets[index])
+            writeInt(pattern.pattern.size)
+        }
+
+        var protocolOffset = 0
+        writeInt(protocolOffset)
+        protocolBytes.forEach {
+            protocolOffset += it.size
+            writeInt(protocolOffset)
+        }
+        protocolBytes.forEach { write(it) }
+
+        pulses.writeTo(this)
+        flush()
+    }
+}
+
+/**
+ * Read-only view of a pattern table. See [writePatternTable] for the layout.
+ */
+class PatternTable private constructor(private val buffer: ByteBuffer) {
+    /**
+     * The CRC32 of the `codes/index` this table was computed from.
+     */
+    val indexCrc = buffer.getInt(8)
+
+    private val protocolCount = buffer.getInt(12)
+    private val entryCount = buffer.getInt(16)
+    private val patternCount = buffer.getInt(20)
+
+    private val entriesStart = HEADER_SIZE
+    private val patternsStart = entriesStart + entryCount * ENTRY_SIZE
+    private val protocolOffsetsStart = patternsStart + patternCount * PATTERN_SIZE
+    private val protocolNamesStart = protocolOffsetsStart + (protocolCount + 1) * 4
+    private val pulsesStart = protocolNamesStart + buffer.getInt(protocolOffsetsStart + protocolCount * 4)
+
+    private val protocolIds: Map<String, Int> = HashMap<String, Int>(protocolCount * 2).apply {
+        for (protocol in 0 until protocolCount) {
+            val start = buffer.getInt(protocolOffsetsStart + protocol * 4)
+            val bytes = ByteArray(buffer.getInt(protocolOffsetsStart + (protocol + 1) * 4) - start)
+            buffer.duplicate().also { it.position(protocolNamesStart + start) }.get(bytes)
+            put(String(bytes, Charsets.UTF_8), protocol)
+        }
+    }
+
+    private fun compareEntry(entry: Int, protocol: Int, device: Int, subdevice: Int, function: Int): Int {
+        val offset = entriesStart + entry * ENTRY_SIZE
+        return buffer.getInt(offset).compareTo(protocol).takeIf { it != 0 }
+            ?: buffer.getInt(offset + 4).compareTo(device).takeIf { it != 0 }
+            ?: buffer.getInt(offset + 8).compareTo(subdevice).takeIf { it != 0 }
+            ?: buffer.getInt(offset + 12).compareTo(function)
+    }
+
+    /**
+     * @return the entry of a function, or -1 if it is not in the table
+     */
+    fun find(protocol: String, device: Int, subdevice: Int, function: Int): Int {
+        val protocolId = protocolIds[protocol] ?: return -1
+
+        var low = 0
+        var high = entryCount - 1
+        while (low <= high) {
+            val middle = (low + high) ushr 1
+            val comparison = compareEntry(middle, protocolId, device, subdevice, function)
+            when {
+                comparison < 0 -> low = middle + 1
+                comparison > 0 -> high = middle - 1
+                else -> return middle
+            }
+        }
+        return -1
+    }
+
+    private fun pattern(pattern: Int): EncodedPattern {
+        val offset = patternsStart + pattern * PATTERN_SIZE
+        val pulses = IntArray(buffer.getInt(offset + 8))
+
+        var position = pulsesStart + buffer.getInt(offset + 4)
+        for (index in pulses.indices) {
+            var value = 0
+            var shift = 0
+            while (true) {
+                val byte = buffer.get(position++).toInt()
+                value = value or ((byte and 0x7F) shl shift)
+                if (byte and 0x80 == 0) break
+                shift += 7
+            }
+            pulses[index] = value
+        }
+
+        return EncodedPattern(buffer.getInt(offset), pulses)
+    }
+
+    fun initialPattern(entry: Int): EncodedPattern = pattern(buffer.getInt(entriesStart + entry * ENTRY_SIZE + 16))
+
+    /**
+     * @return the repeat frame of an entry, or null if its protocol does not repeat
+     */
+    fun repeatPattern(entry: Int): EncodedPattern? =
+        buffer.getInt(entriesStart + entry * ENTRY_SIZE + 20).takeIf { it >= 0 }?.let { pattern(it) }
+
+    companion object {
+        /**
+         * @return a view of the table in [buffer], or null if it is not a pattern table of this version
+         */
+        fun read(buffer: ByteBuffer): PatternTable? {
+            if (buffer.capacity() < HEADER_SIZE) return null
+            if (buffer.getInt(0) != TABLE_MAGIC || buffer.getInt(4) != TABLE_VERSION) return null
+            return PatternTable(buffer)
+        }
+    }
+}
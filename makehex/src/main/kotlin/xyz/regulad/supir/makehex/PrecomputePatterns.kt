@@ -0,0 +1,131 @@
+package xyz.regulad.supir.makehex
+
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.zip.CRC32
+import kotlin.system.exitProcess
+
+/*
+ * Encodes every function in an irdb `codes` directory with the protocols in a MakeHex `protocols` directory, and writes
+ * the frames into a pattern table. Run by the app's precompute<Variant>Patterns tasks.
+ *
+ * Usage: PrecomputePatterns <codes directory> <protocols directory> <output file> <report file>
+ *
+ * Functions whose protocol is unknown or does not compile, and functions that fail to encode, are left out of the
+ * table and listed in the report; the app encodes those live, if it can.
+ */
+
+private data class FunctionKey(val protocol: String, val device: Int, val subdevice: Int, val function: Int)
+
+/**
+ * Reads every function listed in `codes/index`, the same way PackIrdb does, so the table has the same keys the app will
+ * look up.
+ */
+private fun readFunctionKeys(codes: File, indexBytes: ByteArray): Set<FunctionKey> {
+    val keys = HashSet<FunctionKey>()
+
+    for (line in String(indexBytes, Charsets.UTF_8).lines().filter { it.isNotBlank() }) {
+        val (brandName, categoryName, fileName) = line.split("/")
+        val csv = codes.resolve("$brandName.$categoryName/$fileName").takeIf { it.isFile }
+            ?: codes.resolve("$brandName/$categoryName/$fileName").takeIf { it.isFile }
+            ?: continue
+
+        IrdbCsvReader(csv.reader()).use { reader ->
+            while (reader.next()) {
+                keys.add(FunctionKey(reader.protocol.uppercase(), reader.device, reader.subdevice, reader.function))
+            }
+        }
+    }
+
+    return keys
+}
+
+private sealed class EncodeResult {
+    class Encoded(val function: PrecomputedFunction) : EncodeResult()
+    class Failed(val key: FunctionKey, val error: Exception) : EncodeResult()
+}
+
+fun main(args: Array<String>) {
+    if (args.size != 4) {
+        System.err.println("Usage: PrecomputePatterns <codes directory> <protocols directory> <output file> <report file>")
+        exitProcess(2)
+    }
+
+    val (codes, protocolsDirectory, output, report) = args.map { File(it) }
+    val indexBytes = codes.resolve("index").readBytes()
+    val indexCrc = CRC32().apply { update(indexBytes) }.value.toInt()
+
+    val keys = readFunctionKeys(codes, indexBytes)
+    val keysByProtocol = keys.groupBy { it.protocol }.toSortedMap()
+
+    val definitions = readProtocolDefinitions(protocolsDirectory)
+    val processors = keysByProtocol.keys.associateWith { protocol ->
+        resolveProtocolDefinition(protocol, definitions::get)?.let { IRPProcessor.compile(it) }
+    }
+    val unencodableProtocols = processors.filterValues { it == null }.keys
+
+    // most functions use a handful of protocols, so work is split into fixed-size chunks instead of by protocol
+    val threads = Runtime.getRuntime().availableProcessors()
+    val executor = Executors.newFixedThreadPool(threads)
+    val buffers = ThreadLocal.withInitial { PulseBuffer() }
+
+    val results = try {
+        keysByProtocol
+            .filterKeys { it !in unencodableProtocols }
+            .values
+            .flatten()
+            .chunked(1024)
+            .map { chunk ->
+                executor.submit(Callable {
+                    val buffer = buffers.get()
+                    chunk.map { key ->
+                        val processor = processors.getValue(key.protocol)!!
+                        val binding = IrpBinding(key.device, key.subdevice, key.function)
+                        try {
+                            processor.encode(binding, false, buffer)
+                            val initialPattern = EncodedPattern(processor.frequency.toInt(), buffer.toIntArray())
+                            val repeatPattern = if (processor.canRepeat) {
+                                processor.encode(binding, true, buffer)
+                                EncodedPattern(processor.frequency.toInt(), buffer.toIntArray())
+                            } else {
+                                null
+                            }
+                            EncodeResult.Encoded(
+                                PrecomputedFunction(
+                                    key.protocol, key.device, key.subdevice, key.function, initialPattern, repeatPattern
+                                )
+                            )
+                        } catch (e: Exception) {
+                            EncodeResult.Failed(key, e)
+                        }
+                    }
+                })
+            }
+            .flatMap { it.get() }
+    } finally {
+        executor.shutdown()
+    }
+
+    val encoded = results.filterIsInstance<EncodeResult.Encoded>().map { it.function }
+    val failed = results.filterIsInstance<EncodeResult.Failed>()
+
+    output.parentFile?.mkdirs()
+    output.outputStream().use { writePatternTable(it, indexCrc, encoded) }
+
+    report.parentFile?.mkdirs()
+    report.printWriter().use { writer ->
+        writer.println("${encoded.size} of ${keys.size} functions precomputed on $threads threads")
+        writer.println()
+        writer.println("Protocols that are unknown or do not compile (${unencodableProtocols.size}):")
+        unencodableProtocols.forEach { writer.println("  $it (${keysByProtocol.getValue(it).size} functions)") }
+        writer.println()
+        writer.println("Functions that failed to encode (${failed.size}):")
+        failed.forEach { writer.println("  ${it.key.protocol} ${it.key.device} ${it.key.subdevice} ${it.key.function}: ${it.error}") }
+    }
+
+    println(
+        "Precomputed ${encoded.size} of ${keys.size} functions; ${unencodableProtocols.size} protocols and " +
+                "${failed.size} functions could not be encoded (see $report)"
+    )
+}
@@ -0,0 +1,68 @@
+package xyz.regulad.supir.makehex
+
+import java.io.File
+
+/**
+ * The parameterized RC6 family; `RC6-6-32` is this definition with `M=6` and `L=32`.
+ */
+const val RC6_FAMILY = "RC6-M-L"
+
+// irdb names for protocols MakeHex ships under another name
+private val protocolAliases = mapOf(
+    "NEC" to "NEC2",
+    "NECX" to "NECX2",
+)
+
+/**
+ * Reads every protocol in a MakeHex `protocols` directory, keyed by upper-cased protocol name, along with the aliases
+ * irdb uses for some of them.
+ */
+fun readProtocolDefinitions(directory: File): Map<String, String> {
+    val definitions = (directory.listFiles() ?: emptyArray())
+        .filter { it.isFile }
+        .associate { it.name.substringBeforeLast(".").uppercase() to it.readText() }
+
+    return definitions + protocolAliases
+        .filterKeys { it !in definitions }
+        .mapNotNull { (alias, protocol) -> definitions[protocol]?.let { alias to it } }
+}
+
+/**
+ * Defines `M` and `L` in front of [RC6_FAMILY]'s definition.
+ */
+fun rc6Definition(familyDefinition: String, mode: Int, length: Int): String =
+    "Define M=$mode\nDefine L=$length\n$familyDefinition"
+
+private fun parseNumber(string: String, start: Int, end: Int): Int? {
+    if (start == end || end - start > 9) return null
+    var value = 0
+    for (index in start until end) {
+        val digit = string[index] - '0'
+        if (digit !in 0..9) return null
+        value = value * 10 + digit
+    }
+    return value
+}
+
+/**
+ * Finds the IRP definition of [protocol] (upper-cased), given [definition], which looks up a protocol or alias by its
+ * exact name.
+ *
+ * Names like `RC6-6-32` that are not defined themselves resolve to [RC6_FAMILY] with `M` and `L` filled in.
+ */
+inline fun resolveProtocolDefinition(protocol: String, definition: (String) -> String?): String? =
+    definition(protocol) ?: rc6Parameters(protocol)?.let { (mode, length) ->
+        definition(RC6_FAMILY)?.let { rc6Definition(it, mode, length) }
+    }
+
+/**
+ * @return `M` and `L` of a protocol named `RC6-M-L`, or null if [protocol] is not named like that
+ */
+fun rc6Parameters(protocol: String): Pair<Int, Int>? {
+    if (!protocol.startsWith("RC6-")) return null
+    val separator = protocol.indexOf('-', 4)
+    if (separator < 0) return null
+    val mode = parseNumber(protocol, 4, separator) ?: return null
+    val length = parseNumber(protocol, separator + 1, protocol.length) ?: return null
+    return mode to length
+}
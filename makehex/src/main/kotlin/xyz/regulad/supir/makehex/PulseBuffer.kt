@@ -0,0 +1,74 @@
+package xyz.regulad.supir.makehex
+
+/**
+ * A growable, reusable list of pulse durations in microseconds, alternating mark and space and starting with a mark.
+ *
+ * Durations are accumulated as doubles so merged pulses round exactly like they always have, and are only truncated
+ * to whole microseconds when they are copied out for transmission.
+ */
+class PulseBuffer(initialCapacity: Int = 128) {
+    private var durations = DoubleArray(initialCapacity)
+
+    var size: Int = 0
+        private set
+
+    operator fun get(index: Int): Double {
+        if (index >= size) throw IndexOutOfBoundsException("Index $index out of bounds for size $size")
+        return durations[index]
+    }
+
+    fun clear() {
+        size = 0
+    }
+
+    /**
+     * Appends a mark (positive) or a space (negative) to the segment that starts at [segmentStart], merging it into
+     * the last pulse of the segment if that pulse is of the same kind. A space at the start of a segment is dropped.
+     *
+     * @return how much the segment actually grew by
+     */
+    fun append(segmentStart: Int, duration: Double): Double {
+        if (duration == 0.0) return 0.0
+
+        val segmentSize = size - segmentStart
+
+        return if (duration > 0) {
+            if (segmentSize % 2 == 1) {
+                durations[size - 1] += duration
+            } else {
+                push(duration)
+            }
+            duration
+        } else if (segmentSize > 0) {
+            if (segmentSize % 2 == 1) {
+                push(-duration)
+            } else {
+                durations[size - 1] -= duration
+            }
+            -duration
+        } else {
+            0.0
+        }
+    }
+
+    private fun push(duration: Double) {
+        if (size == durations.size) {
+            durations = durations.copyOf(durations.size * 2)
+        }
+        durations[size++] = duration
+    }
+
+    /**
+     * Copies the pulses into the start of [destination], truncated to whole microseconds.
+     */
+    fun copyInto(destination: IntArray) {
+        if (destination.size < size) throw IndexOutOfBoundsException("Destination holds ${destination.size} of $size pulses")
+        for (index in 0 until size) {
+            destination[index] = durations[index].toInt()
+        }
+    }
+
+    fun toIntArray(): IntArray = IntArray(size).also { copyInto(it) }
+
+    fun toDoubleArray(): DoubleArray = durations.copyOf(size)
+}
@@ -0,0 +1,50 @@
+package xyz.regulad.supir.makehex
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class BurstTest {
+    private val power = EncodedPattern(38400, intArrayOf(9024, 4512, 564, 1692, 564, 43992))
+    private val repeat = EncodedPattern(38400, intArrayOf(9024, 2256, 564, 96156))
+
+    @Test
+    fun joinsFramesBackToBack() {
+        val bursts = joinFrames(listOf(power, repeat, repeat), 2_000_000)
+
+        assertEquals(1, bursts.size)
+        assertEquals(38400, bursts[0].frequency)
+        assertArrayEquals(power.pattern + repeat.pattern + repeat.pattern, bursts[0].pattern)
+        assertEquals(power.duration + 2 * repeat.duration, bursts[0].duration)
+    }
+
+    @Test
+    fun splitsAtTheDurationLimit() {
+        // the power frame is 60348 us and each repeat is 108000 us
+        val frames = listOf(power) + List(20) { repeat }
+        val bursts = joinFrames(frames, 500_000)
+
+        assertTrue(bursts.all { it.duration <= 500_000 })
+        assertEquals(frames.sumOf { it.duration }, bursts.sumOf { it.duration })
+        assertArrayEquals(frames.flatMap { it.pattern.toList() }.toIntArray(), bursts.flatMap { it.pattern.toList() }.toIntArray())
+        assertEquals(5, bursts.size)
+    }
+
+    @Test
+    fun keepsFramesWhole() {
+        val long = EncodedPattern(38400, intArrayOf(1000, 3_000_000))
+        val bursts = joinFrames(listOf(repeat, long, repeat), 2_000_000)
+
+        assertEquals(3, bursts.size)
+        assertSame(long, bursts[1])
+    }
+
+    @Test
+    fun separatesFramesThatEndOnAMark() {
+        val rc5 = EncodedPattern(36000, intArrayOf(889, 889, 1778))
+        val bursts = joinFrames(listOf(rc5, rc5, repeat), 2_000_000)
+
+        assertEquals(2, bursts.size)
+        assertArrayEquals(intArrayOf(889, 889, 1778, 1, 889, 889, 1778, 1), bursts[0].pattern)
+        assertSame(repeat, bursts[1])
+    }
+}
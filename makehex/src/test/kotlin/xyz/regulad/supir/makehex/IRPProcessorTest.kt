@@ -0,0 +1,45 @@
+package xyz.regulad.supir.makehex
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class IRPProcessorTest {
+    // a repeat form with neither `_` nor `^`, so nothing in the form pads it to the message time
+    private val unpaddedRepeat = """
+        Frequency=38000
+        Time Base=560
+        One=1,-3
+        Zero=1,-1
+        Prefix=16,-8
+        R-Prefix=16,-4
+        Message Time=108m
+        Form=*,D:8,F:8,1;*,1
+        Device=0.0
+        Function=0..255
+    """.trimIndent()
+
+    private fun encode(processor: IRPProcessor, isRepeat: Boolean): EncodedPattern {
+        val buffer = PulseBuffer()
+        processor.encode(IrpBinding(4, -1, 2), isRepeat, buffer)
+        return EncodedPattern(processor.frequency.toInt(), buffer.toIntArray())
+    }
+
+    @Test
+    fun padsRepeatFramesToTheMessageTime() {
+        val processor = IRPProcessor.compile(unpaddedRepeat)!!
+
+        val messageTime = processor.messageTime.toInt()
+        val repeat = encode(processor, true)
+        assertArrayEquals(intArrayOf(8960, 2240, 560, messageTime - 8960 - 2240 - 560), repeat.pattern)
+        assertEquals(messageTime.toLong(), repeat.duration)
+        assertEquals(messageTime.toLong(), encode(processor, false).duration)
+    }
+
+    @Test
+    fun leavesRawRepeatDataAsMakeHexDoes() {
+        val processor = IRPProcessor.compile(unpaddedRepeat)!!
+
+        val raw = processor.generateRawData(IrpBinding(4, -1, 2), true)
+        assertArrayEquals(doubleArrayOf(8960.0, 2240.0, 560.0), raw, 0.0)
+    }
+}
@@ -0,0 +1,62 @@
+package xyz.regulad.supir.makehex
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.StringReader
+
+class IrdbCsvReaderTest {
+    private fun read(csv: String, malformed: MutableList<Int> = ArrayList()): List<List<Any>> =
+        IrdbCsvReader(StringReader(csv)) { lineNumber, _ -> malformed += lineNumber }.use { reader ->
+            generateSequence {
+                if (reader.next()) {
+                    listOf(reader.functionName, reader.protocol, reader.device, reader.subdevice, reader.function)
+                } else {
+                    null
+                }
+            }.toList()
+        }
+
+    @Test
+    fun readsPlainAndQuotedFields() {
+        val rows = read(
+            "functionname,protocol,device,subdevice,function\n" +
+                    "Power,NEC1,4,-1,8\r\n" +
+                    "\"Volume +\",\"NEC1\",4,-1,2\n"
+        )
+
+        assertEquals(listOf(listOf("Power", "NEC1", 4, -1, 8), listOf("Volume +", "NEC1", 4, -1, 2)), rows)
+    }
+
+    @Test
+    fun unescapesQuotesAndKeepsEmbeddedCommas() {
+        val rows = read(
+            "functionname,protocol,device,subdevice,function\n" +
+                    "\"Input \"\"HDMI, 1\"\"\",NEC1,4,-1,3\n"
+        )
+
+        assertEquals("Input \"HDMI, 1\"", rows.single()[0])
+    }
+
+    @Test
+    fun skipsBlankAndMalformedLines() {
+        val malformed = ArrayList<Int>()
+        val rows = read(
+            "functionname,protocol,device,subdevice,function\n" +
+                    "\n" +
+                    "Power,NEC1,4,-1\n" +
+                    "Mute,NEC1,four,-1,9\n" +
+                    "   \n" +
+                    "Menu,NEC1,4,-1,10",
+            malformed,
+        )
+
+        assertEquals(listOf(listOf("Menu", "NEC1", 4, -1, 10)), rows)
+        assertEquals(listOf(3, 4), malformed)
+    }
+
+    @Test
+    fun readsNothingFromAHeaderOnly() {
+        assertTrue(read("functionname,protocol,device,subdevice,function").isEmpty())
+        assertTrue(read("").isEmpty())
+    }
+}
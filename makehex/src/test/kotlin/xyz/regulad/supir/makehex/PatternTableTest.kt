@@ -0,0 +1,69 @@
+package xyz.regulad.supir.makehex
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+class PatternTableTest {
+    private val power = EncodedPattern(38400, intArrayOf(9024, 4512, 564, 1692, 564, 43992))
+    private val repeat = EncodedPattern(38400, intArrayOf(9024, 2256, 564, 96156))
+    private val rc5 = EncodedPattern(36000, intArrayOf(889, 889, 1778, 200_000))
+
+    private fun table(functions: List<PrecomputedFunction>): Pair<PatternTable, Int> {
+        val bytes = ByteArrayOutputStream().also { writePatternTable(it, 1234, functions) }.toByteArray()
+        return PatternTable.read(ByteBuffer.wrap(bytes))!! to bytes.size
+    }
+
+    private fun assertPattern(expected: EncodedPattern, actual: EncodedPattern?) {
+        assertNotNull(actual)
+        assertEquals(expected.frequency, actual!!.frequency)
+        assertArrayEquals(expected.pattern, actual.pattern)
+    }
+
+    @Test
+    fun findsEveryFunction() {
+        val functions = listOf(
+            PrecomputedFunction("NEC1", 4, -1, 2, power, repeat),
+            PrecomputedFunction("RC5", 0, -1, 12, rc5, null),
+            PrecomputedFunction("NEC1", 4, -1, 1, rc5, repeat),
+            PrecomputedFunction("NEC1", -3, 7, 255, power, repeat),
+        )
+        val (table, _) = table(functions)
+
+        assertEquals(1234, table.indexCrc)
+        for (function in functions) {
+            val entry = table.find(function.protocol, function.device, function.subdevice, function.function)
+            assertTrue(entry >= 0)
+            assertPattern(function.initialPattern, table.initialPattern(entry))
+            if (function.repeatPattern == null) {
+                assertNull(table.repeatPattern(entry))
+            } else {
+                assertPattern(function.repeatPattern!!, table.repeatPattern(entry))
+            }
+        }
+
+        assertEquals(-1, table.find("NEC1", 4, -1, 3))
+        assertEquals(-1, table.find("NEC2", 4, -1, 2))
+    }
+
+    @Test
+    fun storesIdenticalFramesOnce() {
+        val (_, oneFunctionSize) = table(listOf(PrecomputedFunction("NEC1", 4, -1, 2, power, repeat)))
+        val (_, twoFunctionsSize) = table(
+            listOf(
+                PrecomputedFunction("NEC1", 4, -1, 2, power, repeat),
+                PrecomputedFunction("NEC1", 5, -1, 2, power, repeat),
+            )
+        )
+
+        // the second function only adds an entry
+        assertEquals(oneFunctionSize + 24, twoFunctionsSize)
+    }
+
+    @Test
+    fun rejectsOtherFiles() {
+        assertNull(PatternTable.read(ByteBuffer.wrap(ByteArray(64))))
+        assertNull(PatternTable.read(ByteBuffer.wrap(ByteArray(4))))
+    }
+}
@@ -0,0 +1,36 @@
+package xyz.regulad.supir.makehex
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class ProtocolDefinitionsTest {
+    private val definitions = mapOf(
+        "NEC2" to "{38.4k,564}<1,-1|1,-3>(16,-8,D:8,S:8,F:8,~F:8,1,^108m)+",
+        RC6_FAMILY to "{36k,444,msb}<-1,1|1,-1>(6,-2,1:1,M:3,-2,2,OEM1:8,OEM2:8,T:1,D:8,F:8,^107m)*",
+        "RC6-6-20" to "{36k,444,msb}<-1,1|1,-1>(6,-2,1:1,6:3,<-2,2|2,-2>(T:1),D:8,S:4,F:8,-100m)*",
+    )
+
+    @Test
+    fun resolvesExactNamesFirst() {
+        assertEquals(definitions["NEC2"], resolveProtocolDefinition("NEC2", definitions::get))
+        assertEquals(definitions["RC6-6-20"], resolveProtocolDefinition("RC6-6-20", definitions::get))
+        assertNull(resolveProtocolDefinition("NEC", definitions::get))
+    }
+
+    @Test
+    fun resolvesTheRc6Family() {
+        assertEquals(
+            "Define M=6\nDefine L=32\n" + definitions[RC6_FAMILY],
+            resolveProtocolDefinition("RC6-6-32", definitions::get)
+        )
+        assertEquals(0 to 16, rc6Parameters("RC6-0-16"))
+    }
+
+    @Test
+    fun rejectsOtherRc6Names() {
+        for (protocol in listOf("RC6", "RC6-", "RC6-6", "RC6-6-", "RC6--20", "RC6-A-20", "RC6-6-20X", "XRC6-6-32")) {
+            assertNull(protocol, rc6Parameters(protocol))
+        }
+        assertNull(rc6Parameters("RC6-6-99999999999"))
+    }
+}